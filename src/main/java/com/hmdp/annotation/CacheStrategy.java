@@ -0,0 +1,23 @@
+package com.hmdp.annotation;
+
+/**
+ * 缓存查询策略，对应CacheClient的各个查询方法
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值解决缓存穿透，CacheClient#queryWithPassThrough
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁解决缓存击穿，CacheClient#queryWithMutex
+     */
+    MUTEX,
+    /**
+     * 逻辑过期解决缓存击穿，需要提前预热，未命中时返回null，CacheClient#queryWithLogicalExpire
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 概率提前重建解决缓存击穿，无需预热，CacheClient#queryWithEarlyRecompute
+     */
+    EARLY_RECOMPUTE
+}
@@ -0,0 +1,38 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 声明式缓存，方法的返回值按指定策略通过CacheClient缓存，缓存的key为 prefix + key
+ * 方法本身作为数据库查询函数，只在缓存未命中时执行；返回值类型必须是实体类，集合类型不支持
+ * 注意：同一个类内部的调用不经过代理，需要通过 AopContext.currentProxy() 调用
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCache {
+
+    /**
+     * key的前缀，例如 RedisConstants.CACHE_SHOP_KEY
+     */
+    String prefix();
+
+    /**
+     * 计算id的SpEL表达式，例如 "#shop.id"，为空时使用第一个参数
+     */
+    String key() default "";
+
+    /**
+     * 过期时间，逻辑过期策略中为逻辑过期时间
+     */
+    long ttl() default 30L;
+
+    TimeUnit timeUnit() default TimeUnit.MINUTES;
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+}
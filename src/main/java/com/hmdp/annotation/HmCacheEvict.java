@@ -0,0 +1,27 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 声明式删除缓存，方法正常返回后通过CacheClient#delete删除 prefix + key，
+ * 在事务中执行时等事务提交后再删除
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheEvict {
+
+    /**
+     * key的前缀，同一份数据有多种缓存形式时可以指定多个
+     */
+    String[] prefix();
+
+    /**
+     * 计算id的SpEL表达式，例如 "#shop.id"，为空时使用第一个参数
+     */
+    String key() default "";
+}
@@ -0,0 +1,104 @@
+package com.hmdp.aspect;
+
+import com.hmdp.annotation.HmCache;
+import com.hmdp.annotation.HmCacheEvict;
+import com.hmdp.utils.CacheClient;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 实现@HmCache与@HmCacheEvict，将方法调用委托给CacheClient的对应策略
+ */
+@Aspect
+@Component
+public class HmCacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+    //解析过的SpEL表达式
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Around("@annotation(hmCache)")
+    public Object cache(ProceedingJoinPoint joinPoint, HmCache hmCache) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Class<?> type = method.getReturnType();
+        Object id = evaluateKey(hmCache.key(), method, joinPoint.getArgs());
+        //id为空或返回值类型不支持时直接执行方法
+        if (id == null || type.isPrimitive() || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+            return joinPoint.proceed();
+        }
+        //方法本身作为数据库查询函数
+        Function<Object, Object> dbFallback = ignored -> proceed(joinPoint);
+        @SuppressWarnings("unchecked")
+        Class<Object> resultType = (Class<Object>) type;
+        switch (hmCache.strategy()) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(hmCache.prefix(), id, resultType, dbFallback,
+                        hmCache.ttl(), hmCache.timeUnit());
+            case LOGICAL_EXPIRE:
+                return cacheClient.queryWithLogicalExpire(hmCache.prefix(), id, resultType, dbFallback,
+                        hmCache.ttl(), hmCache.timeUnit());
+            case EARLY_RECOMPUTE:
+                return cacheClient.queryWithEarlyRecompute(hmCache.prefix(), id, resultType, dbFallback,
+                        hmCache.ttl(), hmCache.timeUnit());
+            case PASS_THROUGH:
+            default:
+                return cacheClient.queryWithPassThrough(hmCache.prefix(), id, resultType, dbFallback,
+                        hmCache.ttl(), hmCache.timeUnit());
+        }
+    }
+
+    @AfterReturning("@annotation(hmCacheEvict)")
+    public void evict(JoinPoint joinPoint, HmCacheEvict hmCacheEvict) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = evaluateKey(hmCacheEvict.key(), method, joinPoint.getArgs());
+        if (id == null) {
+            return;
+        }
+        for (String prefix : hmCacheEvict.prefix()) {
+            cacheClient.delete(prefix + id);
+        }
+    }
+
+    /**
+     * 计算id，表达式为空时使用第一个参数
+     */
+    private Object evaluateKey(String key, Method method, Object[] args) {
+        if (key.isEmpty()) {
+            return args.length == 0 ? null : args[0];
+        }
+        MethodBasedEvaluationContext context =
+                new MethodBasedEvaluationContext(null, method, args, parameterNameDiscoverer);
+        return expressions.computeIfAbsent(key, parser::parseExpression).getValue(context);
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
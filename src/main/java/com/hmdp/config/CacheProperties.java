@@ -0,0 +1,291 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存相关配置，对应配置文件中的 hmdp.cache
+ */
+@Component
+@Data
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 缓存值的编码格式：json或binary，读取时两种格式都能识别
+     */
+    private String codec = "json";
+
+    /**
+     * 本地一级缓存（L1）配置
+     */
+    private Local local = new Local();
+
+    /**
+     * 缓存重建互斥锁配置
+     */
+    private Lock lock = new Lock();
+
+    /**
+     * 概率提前重建（XFetch）配置
+     */
+    private EarlyRecompute earlyRecompute = new EarlyRecompute();
+
+    /**
+     * 布隆过滤器配置
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 逻辑过期缓存的预热配置
+     */
+    private WarmUp warmUp = new WarmUp();
+
+    /**
+     * 热点key探测与本地副本配置
+     */
+    private HotKey hotKey = new HotKey();
+
+    /**
+     * 缓存重建线程池配置
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 基于binlog的缓存失效配置
+     */
+    private Cdc cdc = new Cdc();
+
+    /**
+     * 缓存值压缩配置
+     */
+    private Compression compression = new Compression();
+
+    /**
+     * 逻辑过期key的提前刷新配置
+     */
+    private RefreshAhead refreshAhead = new RefreshAhead();
+
+    @Data
+    public static class Local {
+        /**
+         * 是否启用本地一级缓存
+         */
+        private boolean enabled = false;
+        /**
+         * 本地缓存的最大条目数，超出后按LRU淘汰
+         */
+        private int maximumSize = 10000;
+        /**
+         * 本地缓存条目的存活时间（单位秒），从写入时开始计算
+         */
+        private long ttlSeconds = 30L;
+    }
+
+    @Data
+    public static class Lock {
+        /**
+         * 获取互斥锁失败后，等待锁释放通知的最长时间（单位毫秒）
+         */
+        private long maxWaitMillis = 3000L;
+    }
+
+    @Data
+    public static class EarlyRecompute {
+        /**
+         * 提前重建系数beta，1.0为论文推荐的默认值，大于1更积极地提前重建
+         */
+        private double beta = 1.0;
+    }
+
+    @Data
+    public static class Bloom {
+        /**
+         * 是否启用布隆过滤器拦截不存在的id
+         */
+        private boolean enabled = false;
+        /**
+         * 每个过滤器预计的元素个数
+         */
+        private long expectedInsertions = 1000000L;
+        /**
+         * 期望的误判率
+         */
+        private double fpp = 0.01;
+        /**
+         * 从数据库全量重建的间隔（单位毫秒）
+         */
+        private long rebuildIntervalMillis = 3600000L;
+        /**
+         * 近期id窗口：大于上次重建时的最大id且不超过 最大id + 该值 的id，过滤器判断不存在时仍然放行，
+         * 用于不经过服务方法新增的数据在下次重建之前不被误拒，0代表关闭
+         */
+        private long recentIdWindow = 10000L;
+    }
+
+    @Data
+    public static class WarmUp {
+        /**
+         * 是否在启动时与定时预热，商铺缓存使用逻辑过期模式时才需要开启
+         */
+        private boolean enabled = false;
+        /**
+         * 每页从数据库读取的条数，每页使用一次MSET写入redis
+         */
+        private int pageSize = 200;
+        /**
+         * 最多预热的热门商铺数量（按销量、评分排序）
+         */
+        private int maxShops = 1000;
+        /**
+         * 每秒最多写入redis的key数量
+         */
+        private int maxKeysPerSecond = 2000;
+        /**
+         * 预热数据的逻辑过期时间（单位秒）
+         */
+        private long logicalExpireSeconds = 1800L;
+        /**
+         * 定时预热的cron表达式
+         */
+        private String cron = "0 0 4 * * ?";
+    }
+
+    @Data
+    public static class HotKey {
+        /**
+         * 是否启用热点key探测
+         */
+        private boolean enabled = false;
+        /**
+         * 估算QPS达到该值的key被识别为热点
+         */
+        private long qpsThreshold = 500L;
+        /**
+         * 统计窗口的长度（单位毫秒）
+         */
+        private long windowMillis = 1000L;
+        /**
+         * 采样率，每sampleRate次访问记录一次，1代表记录全部访问
+         */
+        private int sampleRate = 1;
+        /**
+         * Count-Min Sketch的列数，会向下取整为2的幂
+         */
+        private int sketchWidth = 4096;
+        /**
+         * 最多同时存在的热点key数量
+         */
+        private int maxHotKeys = 1000;
+        /**
+         * 热点key本地副本的存活时间（单位毫秒）
+         */
+        private long replicaTtlMillis = 5000L;
+    }
+
+    @Data
+    public static class Rebuild {
+        /**
+         * 重建线程数
+         */
+        private int threads = 10;
+        /**
+         * 等待队列的容量，队列满后按rejectPolicy处理
+         */
+        private int queueCapacity = 1000;
+        /**
+         * 队列满时的处理策略：drop直接丢弃（调用方继续返回旧数据），caller-runs由调用线程执行
+         */
+        private String rejectPolicy = "drop";
+        /**
+         * 关闭时等待已提交任务执行完成的最长时间（单位秒）
+         */
+        private long shutdownTimeoutSeconds = 10L;
+    }
+
+    @Data
+    public static class Cdc {
+        /**
+         * 是否订阅binlog，关闭时仍可通过管理端口的cdcreplay端点回放记录的变更事件
+         */
+        private boolean enabled = false;
+        /**
+         * MySQL地址，账号需要REPLICATION SLAVE与REPLICATION CLIENT权限
+         */
+        private String host = "localhost";
+        private int port = 3306;
+        private String username;
+        private String password;
+        /**
+         * 只处理该库中的表
+         */
+        private String database;
+        /**
+         * 作为从库连接时使用的server-id，不能与集群中其他节点重复
+         */
+        private long serverId = 65535L;
+        /**
+         * 待删除的key达到该数量时立即批量删除
+         */
+        private int batchSize = 500;
+        /**
+         * 批量删除的最长间隔（单位毫秒）
+         */
+        private long flushIntervalMillis = 200L;
+        /**
+         * 表名到缓存key前缀的映射，一张表可以对应多种缓存形式，主键为表的第一列
+         */
+        private Map<String, List<String>> tables = new LinkedHashMap<>();
+    }
+
+    @Data
+    public static class Compression {
+        /**
+         * 是否压缩大数据，关闭后仍能读取已压缩的数据；
+         * 旧版本节点无法读取压缩的数据，全部节点升级后再开启
+         */
+        private boolean enabled = false;
+        /**
+         * 编码后达到该字节数才压缩，更小的数据压缩收益抵不上CPU开销；
+         * 商铺json在1KB时压缩到约38%，512B时只能压缩到约55%，可以用CacheCompressorBenchmark在实际环境中重新测量
+         */
+        private int thresholdBytes = 1024;
+        /**
+         * 解压缩后允许的最大字节数，超过时视为数据损坏
+         */
+        private int maxInflatedBytes = 16 * 1024 * 1024;
+    }
+
+    @Data
+    public static class RefreshAhead {
+        /**
+         * 是否提前刷新热门的逻辑过期key
+         */
+        private boolean enabled = true;
+        /**
+         * 距离逻辑过期小于该时间（单位毫秒）时提前刷新
+         */
+        private long leadMillis = 5000L;
+        /**
+         * 扫描间隔（单位毫秒）
+         */
+        private long scanIntervalMillis = 1000L;
+        /**
+         * 上次刷新以来访问次数达到该值才提前刷新，否则任其过期
+         */
+        private long minAccesses = 10L;
+        /**
+         * 最多跟踪的key数量
+         */
+        private int maxKeys = 10000;
+        /**
+         * 提前刷新每秒最多查询数据库的次数
+         */
+        private double dbQpsBudget = 50;
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 全局唯一id相关配置，对应配置文件中的 hmdp.id
+ */
+@Component
+@Data
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdProperties {
+
+    /**
+     * id生成方式：redis（按天自增的序列号，依赖redis）或snowflake（本地生成，只在启动时从redis租借worker id）
+     */
+    private String mode = "redis";
+
+    /**
+     * 号段模式配置，只在redis方式下生效
+     */
+    private Segment segment = new Segment();
+
+    /**
+     * snowflake配置
+     */
+    private Snowflake snowflake = new Snowflake();
+
+    @Data
+    public static class Segment {
+        /**
+         * 启用号段模式：一次INCRBY租借一段序列号在本地分配；关闭时每个id执行一次INCR
+         */
+        private boolean enabled = true;
+        /**
+         * 每次租借的序列号个数
+         */
+        private int size = 1000;
+    }
+
+    @Data
+    public static class Snowflake {
+        /**
+         * 固定的worker id（0-1023），小于0时从redis租借
+         */
+        private int workerId = -1;
+        /**
+         * worker id租约时间（秒）
+         */
+        private long leaseTtlSeconds = 60;
+        /**
+         * 续期租约的间隔（毫秒），应明显小于租约时间
+         */
+        private long heartbeatIntervalMillis = 20000;
+        /**
+         * 距离上次续期成功超过 租约时间 - 该时间 后停止生成id，留出时钟误差与网络延迟的余量（毫秒）
+         */
+        private long leaseSafetyMillis = 10000;
+        /**
+         * 时钟回拨不超过该时间时等待时钟追上，超过时拒绝生成id（毫秒）
+         */
+        private long maxBackwardMillis = 5;
+    }
+}
@@ -0,0 +1,133 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 秒杀相关配置，对应配置文件中的 hmdp.seckill
+ */
+@Component
+@Data
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消息队列（Redis Stream）配置
+     */
+    private Stream stream = new Stream();
+
+    /**
+     * 秒杀库存配置
+     */
+    private Stock stock = new Stock();
+
+    /**
+     * 秒杀本地缓存配置
+     */
+    private Local local = new Local();
+
+    /**
+     * 秒杀限流配置
+     */
+    private RateLimit rateLimit = new RateLimit();
+
+    @Data
+    public static class Stream {
+        /**
+         * 消费者组名称
+         */
+        private String group = "g1";
+        /**
+         * 消费者名称，为空时使用主机名，重启后使用同一名称才能直接处理自己未确认的消息
+         */
+        private String consumerName = "";
+        /**
+         * 每批最多落库的订单数，也是每次最多读取的消息数；
+         * 不同批次大小的落库吞吐量可以用VoucherOrderBatchBenchmark在实际的mysql上测量
+         */
+        private int batchSize = 100;
+        /**
+         * 批次中第一条消息最多等待的时间，未攒满一批也会落库（毫秒）
+         */
+        private long batchLatencyMillis = 50;
+        /**
+         * 没有消息时阻塞等待的时间（毫秒）
+         */
+        private long blockMillis = 2000;
+        /**
+         * 已投递但超过该时间未确认的消息，会被认领并重新处理（毫秒）
+         */
+        private long pendingIdleMillis = 30000;
+        /**
+         * 检查未确认消息的间隔（毫秒）
+         */
+        private long reclaimIntervalMillis = 10000;
+        /**
+         * 投递达到该次数仍未成功的消息最后尝试一次，因消息或数据本身的问题失败时转入死信队列，
+         * 数据库不可用等可恢复的错误继续保留在待确认列表中
+         */
+        private int maxDeliveries = 5;
+    }
+
+    @Data
+    public static class Stock {
+        /**
+         * 库存分片数，1代表不分片；大于1时每个秒杀券的库存平均分到多个key上，分散到集群的不同slot
+         * 秒杀进行中不能修改
+         */
+        private int shards = 1;
+        /**
+         * 对账间隔，核对redis库存与数据库库存（毫秒）
+         */
+        private long reconcileIntervalMillis = 60000;
+        /**
+         * 分片时扣减库存后超过该时间仍未发送订单消息的订单，由对账归还库存（毫秒）
+         * 需要远大于订单消息从发送到落库的时间
+         */
+        private long pendingTimeoutMillis = 300000;
+    }
+
+    @Data
+    public static class Local {
+        /**
+         * 本地缓存的秒杀券最大数量
+         */
+        private int maxVouchers = 10000;
+        /**
+         * 本地缓存的秒杀券存活时间（秒）
+         */
+        private long voucherTtlSeconds = 60;
+        /**
+         * 售罄标记的存活时间，防止错过库存归还的广播后一直拒绝请求（毫秒）
+         */
+        private long soldOutTtlMillis = 10000;
+    }
+
+    @Data
+    public static class RateLimit {
+        /**
+         * 启用秒杀限流
+         */
+        private boolean enabled = true;
+        /**
+         * 每个秒杀券每秒允许进入下单流程的请求数（所有节点之和）
+         */
+        private int permitsPerSecond = 1000;
+        /**
+         * 每次从redis租借的令牌数，越大访问redis越少，但节点之间分配越不均匀
+         */
+        private int leaseSize = 20;
+        /**
+         * 本地令牌桶的最大个数，超过时淘汰最久未使用的
+         */
+        private int maxBuckets = 10000;
+        /**
+         * 按秒杀券单独配置的每秒请求数，秒杀券id到请求数的映射
+         */
+        private Map<Long, Integer> vouchers = new LinkedHashMap<>();
+    }
+}
@@ -7,6 +7,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
@@ -14,6 +15,8 @@ import org.springframework.web.bind.annotation.*;
 import javax.annotation.Resource;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+
 /**
  * <p>
  * 前端控制器
@@ -30,6 +33,8 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -38,6 +43,8 @@ public class BlogController {
         blog.setUserId(user.getId());
         // 保存探店博文
         blogService.save(blog);
+        // 加入博客布隆过滤器
+        bloomFilterRegistry.add(CACHE_BLOG_KEY, blog.getId());
         // 返回id
         return Result.ok(blog.getId());
     }
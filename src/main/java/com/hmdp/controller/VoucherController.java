@@ -4,10 +4,13 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BloomFilterRegistry;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+
 /**
  * <p>
  *  前端控制器
@@ -22,6 +25,8 @@ public class VoucherController {
 
     @Resource
     private IVoucherService voucherService;
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
 
     /**
      * 新增普通券
@@ -31,6 +36,8 @@ public class VoucherController {
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
         voucherService.save(voucher);
+        // 加入优惠券布隆过滤器
+        bloomFilterRegistry.add(CACHE_VOUCHER_KEY, voucher.getId());
         return Result.ok(voucher.getId());
     }
 
@@ -0,0 +1,25 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyDTO {
+    /**
+     * 缓存的key
+     */
+    private String key;
+    /**
+     * 最近一个统计窗口内估算的QPS
+     */
+    private Long qps;
+    /**
+     * 被识别为热点的时间
+     */
+    private LocalDateTime promotedTime;
+}
@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 同一条SQL读取的秒杀券库存与订单数，两者属于同一个快照
+ */
+@Data
+public class SeckillStockSnapshotDTO {
+    /**
+     * 秒杀券id
+     */
+    private Long voucherId;
+    /**
+     * 数据库中的库存
+     */
+    private Integer stock;
+    /**
+     * 数据库中已落库的订单数
+     */
+    private Integer orderCount;
+}
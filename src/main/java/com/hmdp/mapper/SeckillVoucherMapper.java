@@ -1,7 +1,12 @@
 package com.hmdp.mapper;
 
+import com.hmdp.dto.SeckillStockSnapshotDTO;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +18,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface SeckillVoucherMapper extends BaseMapper<SeckillVoucher> {
 
+    /**
+     * 一条SQL读取未结束的秒杀券的库存与已落库的订单数，两者来自同一个快照
+     */
+    List<SeckillStockSnapshotDTO> selectStockSnapshots(@Param("now") LocalDateTime now);
+
+    /**
+     * 一条SQL读取一个秒杀券的库存与已落库的订单数
+     */
+    SeckillStockSnapshotDTO selectStockSnapshot(@Param("voucherId") Long voucherId);
 }
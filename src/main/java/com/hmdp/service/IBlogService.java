@@ -18,5 +18,7 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryBlogById(long id);
 
+    Blog queryBlog(Long id);
+
     Result likeBlog(Long id);
 }
@@ -0,0 +1,16 @@
+package com.hmdp.service;
+
+/**
+ * <p>
+ * 缓存预热服务类
+ * </p>
+ */
+public interface ICacheWarmUpService {
+
+    /**
+     * 预热热门商铺与进行中的秒杀券
+     *
+     * @return 本次预热写入的key数量，正在预热中时返回-1
+     */
+    long warmUp();
+}
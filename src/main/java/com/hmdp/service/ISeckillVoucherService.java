@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+
+import java.util.List;
 
 /**
  * <p>
@@ -15,4 +18,26 @@ import com.hmdp.entity.SeckillVoucher;
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
     Result seckillVoucher(Long voucherId);
+
+    /**
+     * 从逻辑过期缓存中查询秒杀券，缓存未预热时返回null
+     */
+    SeckillVoucher queryCachedVoucher(Long voucherId);
+
+    /**
+     * 订单落库，由订单消息的消费线程调用
+     */
+    void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 同一优惠券的订单批量落库，一次扣减库存并一次插入全部订单
+     *
+     * @return 库存不足以扣减整批时返回false，此时没有任何修改
+     */
+    boolean createVoucherOrders(Long voucherId, List<VoucherOrder> voucherOrders);
+
+    /**
+     * 核对redis库存与数据库库存，差值稳定时修正redis库存
+     */
+    void reconcileStock();
 }
@@ -17,5 +17,9 @@ public interface IShopService extends IService<Shop> {
 
     Result queryShopById(Long id);
 
+    Shop queryShop(Long id);
+
     Result updateShop(Shop shop);
+
+    Result queryShopByType(Integer typeId, Integer current);
 }
@@ -1,8 +1,12 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.HmCache;
+import com.hmdp.annotation.HmCacheEvict;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
@@ -10,16 +14,27 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 
 /**
  * <p>
@@ -38,6 +53,21 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    /**
+     * 注册博客id的布隆过滤器，只查询id列
+     */
+    @PostConstruct
+    public void registerBloomFilter() {
+        bloomFilterRegistry.register(CACHE_BLOG_KEY,
+                sink -> listObjs(new QueryWrapper<Blog>().select("id")).forEach(sink));
+    }
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -46,9 +76,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
+        // 批量查询用户，整页只需一次MGET和一次数据库查询
+        Map<Long, UserDTO> users = queryUsers(records);
         records.forEach(blog -> {
-            queryBlogUser(blog);
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
             isBlogLiked(blog);
         });
         return Result.ok(records);
@@ -56,8 +91,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result queryBlogById(long id) {
-        //1、查询博客
-        Blog blog = getById(id);
+        //1、通过代理查询博客（走缓存，布隆过滤器判断一定不存在时直接返回null）
+        IBlogService proxy = (IBlogService) AopContext.currentProxy();
+        Blog cached = proxy.queryBlog(id);
+        if (cached == null) {
+            return Result.fail("笔记不存在");
+        }
+        //缓存中的对象可能被多个请求共享（本地缓存），复制后再填充当前用户相关的字段
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         //2、查询博客相关用户
         queryBlogUser(blog);
         //3、查询点赞状态
@@ -65,7 +106,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(blog);
     }
 
+    /**
+     * 根据id查询博客，缓存空值解决缓存穿透
+     */
     @Override
+    @HmCache(prefix = CACHE_BLOG_KEY, ttl = CACHE_BLOG_TTL)
+    public Blog queryBlog(Long id) {
+        return getById(id);
+    }
+
+    @Override
+    @HmCacheEvict(prefix = CACHE_BLOG_KEY)
     public Result likeBlog(Long id) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
@@ -93,9 +144,23 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok();
     }
 
+    /**
+     * 批量查询博客作者信息，优先从缓存中读取
+     */
+    private Map<Long, UserDTO> queryUsers(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        return cacheClient.queryBatch(CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = userService.queryUserById(userId);
+        if (user == null) {
+            return;
+        }
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
@@ -0,0 +1,202 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.annotation.HmCache;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.ICacheWarmUpService;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillStock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ReflectionUtils;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SECKILL_VOUCHER_KEY;
+
+/**
+ * <p>
+ * 缓存预热服务实现类
+ * 逻辑过期模式下，redis中不存在的key会直接返回空，因此需要在启动时（以及redis被清空后）
+ * 分页读取热门商铺与进行中的秒杀券，按各自读取时使用的策略批量写入redis；
+ * 写入带版本校验，预热期间被更新的数据不会被覆盖
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheWarmUpServiceImpl implements ICacheWarmUpService {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private CacheProperties cacheProperties;
+
+    //防止启动预热与定时预热同时执行
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * 应用启动完成后预热
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (cacheProperties.getWarmUp().isEnabled()) {
+            warmUp();
+        }
+    }
+
+    /**
+     * 定时预热，避免redis被清空或数据被淘汰后逻辑过期的key长时间缺失
+     */
+    @Scheduled(cron = "${hmdp.cache.warm-up.cron:0 0 4 * * ?}")
+    public void scheduledWarmUp() {
+        if (cacheProperties.getWarmUp().isEnabled()) {
+            warmUp();
+        }
+    }
+
+    @Override
+    public long warmUp() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("缓存预热正在进行中，跳过本次预热");
+            return -1;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            long shops = warmUpShops();
+            long vouchers = warmUpSeckillVouchers();
+            log.info("缓存预热完成，商铺 {} 个，秒杀券 {} 个，耗时 {} ms",
+                    shops, vouchers, System.currentTimeMillis() - begin);
+            return shops + vouchers;
+        } catch (Exception e) {
+            log.error("缓存预热异常", e);
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 按销量、评分分页预热热门商铺，按queryShop上@HmCache声明的策略写入，与读取时的格式一致
+     */
+    private long warmUpShops() {
+        CacheProperties.WarmUp config = cacheProperties.getWarmUp();
+        HmCache hmCache = AnnotationUtils.findAnnotation(ReflectionUtils.findMethod(
+                AopUtils.getTargetClass(shopService), "queryShop", Long.class), HmCache.class);
+        if (hmCache == null || hmCache.strategy() == CacheStrategy.EARLY_RECOMPUTE) {
+            //概率提前重建不需要预热
+            log.info("商铺缓存不需要预热，跳过");
+            return 0;
+        }
+        Function<Collection<Long>, Map<Long, Shop>> dbFallback = ids -> shopService.listByIds(ids).stream()
+                .collect(Collectors.toMap(Shop::getId, Function.identity()));
+        long total = 0;
+        for (int current = 1; total < config.getMaxShops(); current++) {
+            long pageBegin = System.currentTimeMillis();
+            //1、只查询id，版本号需要在查询商铺数据之前读取
+            List<Long> ids = shopService.query()
+                    .select("id")
+                    .orderByDesc("sold")
+                    .orderByDesc("score")
+                    .page(new Page<>(current, config.getPageSize(), false))
+                    .getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                break;
+            }
+            List<Long> pageIds = ids.subList(0, (int) Math.min(ids.size(), config.getMaxShops() - total));
+            //2、按读取时的策略写入
+            if (hmCache.strategy() == CacheStrategy.LOGICAL_EXPIRE) {
+                cacheClient.warmUpBatchWithLogicalExpire(hmCache.prefix(), pageIds, dbFallback,
+                        config.getLogicalExpireSeconds(), TimeUnit.SECONDS);
+            } else {
+                cacheClient.warmUpBatch(hmCache.prefix(), pageIds, dbFallback, hmCache.ttl(), hmCache.timeUnit());
+            }
+            total += pageIds.size();
+            log.info("商铺缓存预热进度：{}/{}", total, config.getMaxShops());
+            throttle(pageIds.size(), pageBegin);
+            if (ids.size() < config.getPageSize()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 分页预热尚未结束的秒杀券（逻辑过期），同时补齐redis中缺失的秒杀库存
+     */
+    private long warmUpSeckillVouchers() {
+        CacheProperties.WarmUp config = cacheProperties.getWarmUp();
+        long total = 0;
+        LocalDateTime now = LocalDateTime.now();
+        for (int current = 1; ; current++) {
+            long pageBegin = System.currentTimeMillis();
+            List<Long> ids = seckillVoucherService.query()
+                    .select("voucher_id")
+                    .gt("end_time", now)
+                    .orderByAsc("voucher_id")
+                    .page(new Page<>(current, config.getPageSize(), false))
+                    .getRecords().stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+            if (ids.isEmpty()) {
+                break;
+            }
+            //库存只在redis中缺失时写入，已有的库存以redis为准
+            Map<Long, Integer> stocks = new LinkedHashMap<>();
+            cacheClient.warmUpBatchWithLogicalExpire(CACHE_SECKILL_VOUCHER_KEY, ids, voucherIds -> {
+                Map<Long, SeckillVoucher> vouchers = new LinkedHashMap<>();
+                for (SeckillVoucher voucher : seckillVoucherService.listByIds(voucherIds)) {
+                    vouchers.put(voucher.getVoucherId(), voucher);
+                    stocks.put(voucher.getVoucherId(), voucher.getStock());
+                }
+                return vouchers;
+            }, config.getLogicalExpireSeconds(), TimeUnit.SECONDS);
+            seckillStock.load(stocks, false);
+            total += ids.size();
+            log.info("秒杀券缓存预热进度：{}", total);
+            throttle(ids.size() * 2, pageBegin);
+            if (ids.size() < config.getPageSize()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 限速：写入count个key至少需要 count / maxKeysPerSecond 秒，不足的时间休眠补齐
+     */
+    private void throttle(int count, long pageBegin) {
+        long minMillis = count * 1000L / Math.max(1, cacheProperties.getWarmUp().getMaxKeysPerSecond());
+        long sleepMillis = minMillis - (System.currentTimeMillis() - pageBegin);
+        if (sleepMillis > 0) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -1,24 +1,84 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.CacheStrategy;
+import com.hmdp.annotation.HmCache;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillStockSnapshotDTO;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.IdGenerator;
+import com.hmdp.utils.SeckillLocalCache;
+import com.hmdp.utils.SeckillMetrics;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SECKILL_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SECKILL_VOUCHER_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_LETTER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_LOCK_NAME;
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_LOCK_TTL;
 
 /**
  * <p>
@@ -28,22 +88,96 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdGenerator idGenerator;
     @Resource
     private VoucherOrderMapper voucherOrderMapper;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private RedissonClient redissonClient;
+    private BloomFilterRegistry bloomFilterRegistry;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private SeckillProperties seckillProperties;
+    @Resource
+    private SeckillMetrics seckillMetrics;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillLocalCache seckillLocalCache;
+    @Resource
+    private SeckillRateLimiter seckillRateLimiter;
+    //代理对象，消费线程中无法通过AopContext获取，注入自身的代理使事务生效
+    @Lazy
+    @Resource
+    private ISeckillVoucherService proxy;
+
+    //订单消息消费线程，单线程顺序处理
+    private final ExecutorService SECKILL_ORDER_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("seckill-order-", false));
+
+    private String consumerName;
+
+    //最近一次检查时未确认的消息数
+    private final AtomicLong pendingCount = new AtomicLong();
+
+    private volatile boolean running = false;
+
+    //上次对账时各秒杀券的库存差值
+    private volatile Map<Long, Long> stockDrifts = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        consumerName = seckillProperties.getStream().getConsumerName();
+        if (StrUtil.isBlank(consumerName)) {
+            try {
+                consumerName = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException("无法获取主机名，请配置 hmdp.seckill.stream.consumer-name", e);
+            }
+        }
+        seckillMetrics.registerStreamPending(pendingCount::get);
+    }
+
+    /**
+     * 应用启动完成后创建消费者组并开始消费
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOrderHandler() {
+        createGroup();
+        running = true;
+        SECKILL_ORDER_EXECUTOR.submit(this::handleOrders);
+    }
 
+    @PreDestroy
+    public void stopOrderHandler() {
+        running = false;
+        SECKILL_ORDER_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 秒杀下单：在redis中完成库存判断、一人一单判断、库存预扣减与发送订单消息，
+     * 请求线程不访问数据库，订单由消费线程从stream中读取后落库
+     */
     @Override
     public Result seckillVoucher(Long voucherId) {
-        //1、查询优惠券
-        SeckillVoucher voucher = getById(voucherId);
+        //1、查询优惠券，布隆过滤器判断一定不存在时直接返回
+        if (!bloomFilterRegistry.mightContain(CACHE_VOUCHER_KEY, voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        //本节点已知售罄时直接返回，不访问redis与数据库
+        if (seckillLocalCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
+        SeckillVoucher voucher = querySeckillVoucher(voucherId);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在");
+        }
         //2、判断秒杀是否开始
         if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
             return Result.fail("秒杀活动尚未开始");
@@ -53,83 +187,514 @@ public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper,
         if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
             return Result.fail("秒杀活动已经结束");
         }
-
-        //4、判断库存是否充足
-        Integer stock = voucher.getStock();
-        if (stock < 1) {
-            return Result.fail("库存不足！");
+        //超过配额的请求直接返回；在确认秒杀券存在之后限流，不存在的id不会创建令牌桶
+        if (!seckillRateLimiter.tryAcquire(voucherId)) {
+            return Result.fail("抢购人数过多，请稍后再试");
         }
+
+        //4、判断库存与一人一单，预扣减库存并发送订单消息
         Long userId = UserHolder.getUser().getId();
-//        //使用自制redis简易锁创建锁对象
-//        SimpleRedisLock lock = new SimpleRedisLock("voucher-order" + userId, stringRedisTemplate);
-//        //使用自制redis简易锁获取锁
-//        boolean isSuccess = lock.tryLock(500); //设置过期时间为500ms
+        long orderId = idGenerator.nextId("voucherOrder");
+        long result = seckillStock.acquire(voucherId, userId, orderId);
+        if (result == SeckillStock.RESULT_NOT_LOADED) {
+            //库存不在redis中（预热之前创建的秒杀券，或key被淘汰、主从切换后丢失），从数据库重新加载后重试一次
+            if (!reloadStock(voucherId)) {
+                return Result.fail("系统繁忙，请稍后重试");
+            }
+            result = seckillStock.acquire(voucherId, userId, orderId);
+        }
+        if (result != SeckillStock.RESULT_OK) {
+            return Result.fail(result == SeckillStock.RESULT_DUPLICATE ? "不允许重复下单！" : "库存不足！");
+        }
 
-        //使用redisson分布式锁创建锁对象,并使用默认的过期时间
-        RLock lock = redissonClient.getLock("voucher-order" + userId);
-        boolean isSuccess = lock.tryLock();
+        //5、返回订单id
+        return Result.ok(orderId);
+    }
 
-        if (!isSuccess) {
-            //获取锁失败，返回错误信息
-            return Result.fail("不允许重复下单！");
+    /**
+     * 在对账锁内重新加载库存：数据库中的最新库存 - 已获得资格但尚未落库的订单数。
+     * 缓存中的秒杀券是创建时的库存，不能用于加载，否则售卖中途丢失库存key时会按初始库存重新开卖。
+     * 只写入缺失的分片，与对账串行执行，不会重复加载
+     *
+     * @return false代表其他节点正在对账或加载，或秒杀券已不存在
+     */
+    private boolean reloadStock(Long voucherId) {
+        ILock lock = new SimpleRedisLock(SECKILL_RECONCILE_LOCK_NAME, stringRedisTemplate);
+        if (!lock.tryLock(SECKILL_RECONCILE_LOCK_TTL)) {
+            return false;
         }
-        //获取锁成功，执行业务，创建订单
         try {
-            SeckillVoucherServiceImpl proxy = (SeckillVoucherServiceImpl) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
+            SeckillStockSnapshotDTO snapshot = baseMapper.selectStockSnapshot(voucherId);
+            if (snapshot == null) {
+                return false;
+            }
+            long inFlight = Math.max(0, seckillStock.admittedCount(voucherId) - snapshot.getOrderCount());
+            int stock = (int) Math.max(0, snapshot.getStock() - inFlight);
+            seckillStock.load(Collections.singletonMap(voucherId, stock), false);
+            log.info("重新加载秒杀券 {} 的库存：{}，数据库库存：{}，待落库：{}", voucherId, stock, snapshot.getStock(), inFlight);
+            return true;
         } finally {
-            //释放锁
             lock.unlock();
         }
-//        synchronized (userId.toString().intern()) {
-//            // 获取代理对象(事务)
-//            SeckillVoucherServiceImpl proxy = (SeckillVoucherServiceImpl) AopContext.currentProxy();
-//            return proxy.createVoucherOrder(voucherId);
-//        }
     }
 
-    // 创建订单
+    /**
+     * 查询秒杀券信息：先查本地缓存，再查redis（逻辑过期），都不存在时从数据库加载并写入缓存
+     */
+    private SeckillVoucher querySeckillVoucher(Long voucherId) {
+        SeckillVoucher voucher = seckillLocalCache.getVoucher(voucherId);
+        if (voucher != null) {
+            return voucher;
+        }
+        voucher = proxy.queryCachedVoucher(voucherId);
+        if (voucher == null) {
+            //逻辑过期缓存未预热（预热之前创建的秒杀券，或key被淘汰），从数据库加载并写入缓存
+            voucher = getById(voucherId);
+            if (voucher == null) {
+                return null;
+            }
+            cacheClient.setWithLogicalExpire(CACHE_SECKILL_VOUCHER_KEY + voucherId, voucher,
+                    CACHE_SECKILL_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        seckillLocalCache.putVoucher(voucher);
+        return voucher;
+    }
+
+    /**
+     * 查询逻辑过期缓存中的秒杀券，过期时由@HmCache异步重建；缓存不存在时返回null
+     */
+    @Override
+    @HmCache(prefix = CACHE_SECKILL_VOUCHER_KEY, ttl = CACHE_SECKILL_VOUCHER_TTL,
+            strategy = CacheStrategy.LOGICAL_EXPIRE)
+    public SeckillVoucher queryCachedVoucher(Long voucherId) {
+        return getById(voucherId);
+    }
+
+    /**
+     * 创建消费者组，stream不存在时一并创建，组已存在时忽略
+     */
+    private void createGroup() {
+        String group = seckillProperties.getStream().getGroup();
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.xGroupCreate(
+                    SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), true));
+            log.info("已创建订单消息消费者组：{}", group);
+        } catch (Exception e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 消费线程：启动时先处理本消费者上次未确认的消息，之后读取新消息攒批落库，
+     * 并定期认领其他消费者（包括已经下线的）长时间未确认的消息
+     */
+    private void handleOrders() {
+        SeckillProperties.Stream config = seckillProperties.getStream();
+        Consumer consumer = Consumer.from(config.getGroup(), consumerName);
+        long nextReclaimTime = 0;
+        //攒批的消息，以及批次中第一条消息的读取时间
+        List<MapRecord<String, ?, ?>> buffer = new ArrayList<>(config.getBatchSize());
+        long batchBeginTime = 0;
+        handlePendingOrders(consumer);
+        while (running) {
+            try {
+                //1、定期检查未确认的消息
+                if (System.currentTimeMillis() >= nextReclaimTime) {
+                    reclaimPendingOrders();
+                    nextReclaimTime = System.currentTimeMillis() + config.getReclaimIntervalMillis();
+                }
+                //2、读取新消息 XREADGROUP GROUP g1 c1 COUNT n BLOCK ms STREAMS stream.orders >
+                //   已有攒批的消息时，最多阻塞到该批次的等待时间用完
+                long blockMillis = buffer.isEmpty() ? config.getBlockMillis()
+                        : Math.max(1, batchBeginTime + config.getBatchLatencyMillis() - System.currentTimeMillis());
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(config.getBatchSize() - buffer.size())
+                                .block(Duration.ofMillis(blockMillis)),
+                        StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.lastConsumed()));
+                if (records != null && !records.isEmpty()) {
+                    if (buffer.isEmpty()) {
+                        batchBeginTime = System.currentTimeMillis();
+                    }
+                    buffer.addAll(records);
+                }
+                //3、攒满一批或等待时间用完时落库，成功后确认
+                if (buffer.size() >= config.getBatchSize() || (!buffer.isEmpty()
+                        && System.currentTimeMillis() - batchBeginTime >= config.getBatchLatencyMillis())) {
+                    List<MapRecord<String, ?, ?>> batch = new ArrayList<>(buffer);
+                    buffer.clear();
+                    handleRecords(batch);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("读取订单消息异常", e);
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理本消费者已读取但未确认的消息（上次运行时落库失败或宕机）
+     * 失败的消息不会重复读取，留给定期检查在超时后重新认领
+     */
+    private void handlePendingOrders(Consumer consumer) {
+        String lastId = "0";
+        while (running) {
+            List<MapRecord<String, Object, Object>> records;
+            try {
+                records = stringRedisTemplate.opsForStream().read(
+                        consumer,
+                        StreamReadOptions.empty().count(seckillProperties.getStream().getBatchSize()),
+                        StreamOffset.create(SECKILL_ORDER_STREAM_KEY, ReadOffset.from(lastId)));
+            } catch (Exception e) {
+                log.error("读取未确认的订单消息异常", e);
+                return;
+            }
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            handleRecords(records);
+            lastId = records.get(records.size() - 1).getId().getValue();
+        }
+    }
+
+    /**
+     * 检查消费者组中超时未确认的消息并认领到本消费者后重新处理；
+     * 投递次数达到上限的消息最后逐条尝试一次，只有因消息或数据本身的问题失败时才转入死信队列
+     */
+    private void reclaimPendingOrders() {
+        SeckillProperties.Stream config = seckillProperties.getStream();
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream()
+                .pending(SECKILL_ORDER_STREAM_KEY, config.getGroup());
+        pendingCount.set(summary == null ? 0 : summary.getTotalPendingMessages());
+        if (pendingCount.get() == 0) {
+            return;
+        }
+        //1、查询未确认的消息 XPENDING stream.orders g1 - + count
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                SECKILL_ORDER_STREAM_KEY, config.getGroup(), Range.unbounded(), config.getBatchSize() * 10L);
+        List<RecordId> claimIds = new ArrayList<>();
+        Map<String, Long> exhausted = new HashMap<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().toMillis() < config.getPendingIdleMillis()) {
+                continue;
+            }
+            claimIds.add(message.getId());
+            if (message.getTotalDeliveryCount() >= config.getMaxDeliveries()) {
+                exhausted.put(message.getIdAsString(), message.getTotalDeliveryCount());
+            }
+        }
+        if (claimIds.isEmpty()) {
+            return;
+        }
+        //2、认领到本消费者，min-idle-time保证其他节点同时认领时只有一个成功
+        List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.xClaim(SECKILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                        config.getGroup(), consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdleMs(config.getPendingIdleMillis())
+                                .ids(claimIds.toArray(new RecordId[0]))));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        //3、重新处理
+        List<MapRecord<String, String, String>> records = new ArrayList<>(claimed.size());
+        for (ByteRecord record : claimed) {
+            seckillMetrics.streamMessage(SeckillMetrics.RESULT_RECLAIMED);
+            MapRecord<String, String, String> mapRecord = record.deserialize(StringRedisSerializer.UTF_8);
+            Long deliveries = exhausted.get(mapRecord.getId().getValue());
+            if (deliveries != null) {
+                lastAttempt(mapRecord, deliveries);
+            } else {
+                records.add(mapRecord);
+            }
+        }
+        if (!records.isEmpty()) {
+            handleRecords(records);
+        }
+    }
+
+    /**
+     * 投递次数达到上限的消息最后尝试落库一次：成功则确认；
+     * 因消息或数据本身的问题失败时转入死信队列，数据库不可用等可恢复的错误保留在待确认列表中，
+     * 否则数据库故障期间有效的订单会被转入死信队列并归还库存
+     */
+    private void lastAttempt(MapRecord<String, String, String> record, long deliveries) {
+        try {
+            proxy.createVoucherOrder(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            stringRedisTemplate.opsForStream().acknowledge(
+                    SECKILL_ORDER_STREAM_KEY, seckillProperties.getStream().getGroup(), record.getId());
+            seckillMetrics.streamMessage(SeckillMetrics.RESULT_SUCCESS);
+        } catch (Exception e) {
+            if (isRetryable(e)) {
+                log.error("订单消息 {} 投递 {} 次仍未成功，错误可恢复，保留在待确认列表中", record.getId(), deliveries, e);
+                seckillMetrics.streamMessage(SeckillMetrics.RESULT_FAILURE);
+                return;
+            }
+            deadLetter(record, deliveries, e);
+        }
+    }
+
+    /**
+     * 判断落库失败是否可以通过重试恢复：连接失败、超时、死锁等可恢复；
+     * 违反约束、数据库库存不足、消息内容无法解析等重试也不会成功
+     */
+    private static boolean isRetryable(Exception e) {
+        //连接失败属于NonTransientDataAccessException，但数据库恢复后重试可以成功
+        if (e instanceof NonTransientDataAccessResourceException) {
+            return true;
+        }
+        return !(e instanceof NonTransientDataAccessException
+                || e instanceof IllegalStateException
+                || e instanceof IllegalArgumentException);
+    }
+
+    /**
+     * 将处理失败的消息转入死信队列并确认，同时归还预扣减的库存
+     * 死信消息保留原消息id、投递次数与失败原因，排查后可重新写入订单stream
+     */
+    private void deadLetter(MapRecord<String, String, String> record, long deliveries, Exception cause) {
+        String id = record.getId().getValue();
+        Map<Object, Object> value = new HashMap<>(record.getValue());
+        value.put("sourceId", id);
+        value.put("deliveries", String.valueOf(deliveries));
+        value.put("error", String.valueOf(cause.getMessage()));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DEAD_LETTER_KEY, value);
+        try {
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            seckillStock.release(voucherOrder.getVoucherId(), voucherOrder.getUserId());
+        } catch (Exception e) {
+            log.error("死信消息 {} 归还库存失败，由对账修正", id, e);
+        }
+        stringRedisTemplate.opsForStream().acknowledge(
+                SECKILL_ORDER_STREAM_KEY, seckillProperties.getStream().getGroup(), record.getId());
+        seckillMetrics.streamMessage(SeckillMetrics.RESULT_DEAD_LETTER);
+        log.error("订单消息 {} 投递 {} 次仍未成功，已转入死信队列", id, deliveries, cause);
+    }
+
+    /**
+     * 按优惠券分组批量落库，成功的消息一次确认；失败的消息不确认，留在消费者组的待确认列表中等待重新认领
+     */
+    private void handleRecords(List<? extends MapRecord<String, ?, ?>> records) {
+        //1、按优惠券分组
+        Map<Long, List<MapRecord<String, ?, ?>>> recordsByVoucher = new LinkedHashMap<>();
+        for (MapRecord<String, ?, ?> record : records) {
+            Long voucherId = Long.valueOf(String.valueOf(record.getValue().get("voucherId")));
+            recordsByVoucher.computeIfAbsent(voucherId, k -> new ArrayList<>()).add(record);
+        }
+        //2、逐组落库
+        List<MapRecord<String, ?, ?>> succeeded = new ArrayList<>(records.size());
+        recordsByVoucher.forEach((voucherId, group) -> handleVoucherRecords(voucherId, group, succeeded));
+        if (succeeded.isEmpty()) {
+            return;
+        }
+        //3、确认消息 XACK stream.orders g1 id1 id2 ...
+        RecordId[] ids = succeeded.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(
+                SECKILL_ORDER_STREAM_KEY, seckillProperties.getStream().getGroup(), ids);
+        for (MapRecord<String, ?, ?> record : succeeded) {
+            seckillMetrics.streamMessage(SeckillMetrics.RESULT_SUCCESS);
+            seckillMetrics.streamLag(record.getId().getTimestamp());
+        }
+    }
+
+    /**
+     * 同一优惠券的订单整批落库；库存不足以扣减整批或违反唯一约束时整批回滚，改为逐条落库
+     */
+    private void handleVoucherRecords(Long voucherId, List<MapRecord<String, ?, ?>> records,
+                                      List<MapRecord<String, ?, ?>> succeeded) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, ?, ?> record : records) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        if (records.size() > 1) {
+            try {
+                if (proxy.createVoucherOrders(voucherId, voucherOrders)) {
+                    succeeded.addAll(records);
+                    return;
+                }
+                log.warn("库存不足以扣减整批订单，逐条落库，优惠券：{}，订单数：{}", voucherId, records.size());
+            } catch (DataIntegrityViolationException e) {
+                log.warn("批量落库违反约束，逐条落库，优惠券：{}，订单数：{}", voucherId, records.size(), e);
+            } catch (Exception e) {
+                //数据库不可用等错误，逐条重试也会失败，整批留待重新认领
+                log.error("批量创建订单失败，优惠券：{}，订单数：{}", voucherId, records.size(), e);
+                records.forEach(r -> seckillMetrics.streamMessage(SeckillMetrics.RESULT_FAILURE));
+                return;
+            }
+        }
+        for (int i = 0; i < records.size(); i++) {
+            try {
+                proxy.createVoucherOrder(voucherOrders.get(i));
+                succeeded.add(records.get(i));
+            } catch (Exception e) {
+                log.error("创建订单失败，消息id：{}，订单：{}", records.get(i).getId(), voucherOrders.get(i), e);
+                seckillMetrics.streamMessage(SeckillMetrics.RESULT_FAILURE);
+            }
+        }
+    }
+
+    /**
+     * 对账：redis库存 = 数据库库存 - 已获得资格但尚未落库的订单数，
+     * 即 数据库库存 - (redis中已下单用户数 - 数据库中订单数)。
+     * 数据库库存与订单数由同一条SQL读取；redis中的值只在订单流水静止时读取：
+     * 消费者组没有未确认或未投递的消息、没有待发送的订单，且读取前后stream没有新消息。
+     * 连续两次差值相同时才修正，并且只自动减少redis库存（多卖的风险）；
+     * redis库存偏少时只记录日志，由人工确认后修正。
+     * 所有节点通过分布式锁串行对账，未获取到锁的节点跳过本次对账
+     */
+    @Override
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stock.reconcile-interval-millis:60000}")
+    public void reconcileStock() {
+        //多个节点同时对账会把同一个差值重复修正多次，同一时刻只允许一个节点对账
+        ILock lock = new SimpleRedisLock(SECKILL_RECONCILE_LOCK_NAME, stringRedisTemplate);
+        if (!lock.tryLock(SECKILL_RECONCILE_LOCK_TTL)) {
+            return;
+        }
+        try {
+            doReconcileStock();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在持有对账锁时执行，读取到的是其他节点修正之后的库存，不会重复修正
+     */
+    void doReconcileStock() {
+        List<SeckillStockSnapshotDTO> snapshots = baseMapper.selectStockSnapshots(LocalDateTime.now());
+        Map<Long, Long> drifts = new HashMap<>();
+        for (SeckillStockSnapshotDTO snapshot : snapshots) {
+            Long voucherId = snapshot.getVoucherId();
+            try {
+                //1、先归还扣减库存后未发送订单消息的库存
+                seckillStock.releaseStalePending(voucherId, seckillProperties.getStock().getPendingTimeoutMillis(),
+                        orderId -> voucherOrderMapper.selectById(orderId) != null);
+                //2、订单流水静止时读取redis中的库存与已下单用户数
+                String streamPosition = idleStreamPosition();
+                if (streamPosition == null) {
+                    log.debug("订单消息尚未处理完，跳过本次对账");
+                    break;
+                }
+                Long remaining = seckillStock.remaining(voucherId);
+                if (remaining == null) {
+                    continue;
+                }
+                long admitted = seckillStock.admittedCount(voucherId);
+                if (seckillStock.hasPending(voucherId) || !streamPosition.equals(idleStreamPosition())) {
+                    continue;
+                }
+                //3、比较差值，连续两次相同时修正
+                long inFlight = admitted - snapshot.getOrderCount();
+                long drift = snapshot.getStock() - inFlight - remaining;
+                if (drift == 0) {
+                    continue;
+                }
+                if (!Long.valueOf(drift).equals(stockDrifts.get(voucherId))) {
+                    drifts.put(voucherId, drift);
+                    continue;
+                }
+                if (drift < 0) {
+                    seckillStock.adjust(voucherId, drift);
+                    seckillMetrics.stockCorrection();
+                    log.warn("秒杀券 {} 的redis库存多于数据库，已修正 {}，数据库库存：{}，redis库存：{}，待落库：{}",
+                            voucherId, drift, snapshot.getStock(), remaining, inFlight);
+                } else {
+                    drifts.put(voucherId, drift);
+                    log.error("秒杀券 {} 的redis库存少于数据库 {}，需要人工确认后修正，数据库库存：{}，redis库存：{}，待落库：{}",
+                            voucherId, drift, snapshot.getStock(), remaining, inFlight);
+                }
+            } catch (Exception e) {
+                log.error("秒杀券 {} 库存对账失败", voucherId, e);
+            }
+        }
+        stockDrifts = drifts;
+    }
+
+    /**
+     * 订单消息全部投递并确认时返回stream最后一条消息的id，否则返回null
+     */
+    private String idleStreamPosition() {
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(SECKILL_ORDER_STREAM_KEY);
+        String group = seckillProperties.getStream().getGroup();
+        StreamInfo.XInfoGroup consumerGroup = stringRedisTemplate.opsForStream().groups(SECKILL_ORDER_STREAM_KEY)
+                .stream().filter(g -> group.equals(g.groupName())).findFirst().orElse(null);
+        if (consumerGroup == null || consumerGroup.pendingCount() != 0
+                || !info.lastGeneratedId().equals(consumerGroup.lastDeliveredId())) {
+            return null;
+        }
+        return info.lastGeneratedId();
+    }
+
+    /**
+     * 批量创建订单：一次查询去重、一条UPDATE扣减N个库存、一条多行INSERT插入订单
+     */
+    @Override
     @Transactional
-    public Result createVoucherOrder(Long voucherId) {
+    public boolean createVoucherOrders(Long voucherId, List<VoucherOrder> voucherOrders) {
+        //1、一人一单，先去掉批次内重复投递的消息，再去掉数据库中已经存在的订单
+        Map<Long, VoucherOrder> ordersByUser = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            ordersByUser.putIfAbsent(voucherOrder.getUserId(), voucherOrder);
+        }
+        List<Object> existUserIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("user_id").eq("voucher_id", voucherId).in("user_id", ordersByUser.keySet()));
+        for (Object userId : existUserIds) {
+            ordersByUser.remove(((Number) userId).longValue());
+        }
+        if (ordersByUser.isEmpty()) {
+            return true;
+        }
+        //2、扣减库存，库存不足以扣减整批时不做任何修改
+        int count = ordersByUser.size();
+        boolean isSuccess = update().setSql("stock = stock - " + count).eq("voucher_id", voucherId).ge("stock", count)
+                .update();
+        if (!isSuccess) {
+            return false;
+        }
+
+        //3、创建订单
+        voucherOrderMapper.insertBatch(new ArrayList<>(ordersByUser.values()));
+        return true;
+    }
+
+    /**
+     * 创建订单，redis中已经完成了资格判断，这里作为兜底
+     * 同一条消息可能被重复投递，一人一单的判断同时保证了重复消息不会重复落库
+     *
+     * @throws IllegalStateException 数据库库存不足
+     */
+    @Override
+    @Transactional
+    public void createVoucherOrder(VoucherOrder voucherOrder) {
         //5、一人一单
-        Long userId = UserHolder.getUser().getId();
+        Long userId = voucherOrder.getUserId();
+        Long voucherId = voucherOrder.getVoucherId();
         LambdaQueryWrapper<VoucherOrder> queryWrapper = new LambdaQueryWrapper<>();
         queryWrapper.eq(VoucherOrder::getUserId, userId).eq(VoucherOrder::getVoucherId, voucherId);
         int count = voucherOrderMapper.selectCount(queryWrapper);
         if (count > 0) {
-            return Result.fail("用户已经购买过一次！");
-        }
-        //6、扣减库存
-        /*
-        使用乐观锁解决超卖问题（CAS法：用数据本身是否发生变化判断线程是否安全）
-        修改扣减库存操作，在执行update语句时添加判断，
-        判断当前库存与之前查询出来的库存是否相等，
-        若相等，则说明没有人在中间修改过库存，那么此时就是安全的。
-        */
-//        boolean isSuccess = update()
-//                .setSql("stock = stock - 1")
-//                .eq("voucher_id", voucherId)
-//                .eq("stock", voucher.getStock()) //where id = ? and stock = ?
-//                .update();
-        //优化乐观锁，当执行update语句时，只需判断当前库存大于0即可。
-        boolean isSuccess = update().setSql("stock = stock - 1").eq("voucher_id", voucherId).gt("stock", 0) //where id = ? and stock = ?
+            log.error("用户已经购买过一次，订单：{}", voucherOrder);
+            return;
+        }
+        //6、扣减库存，只需判断当前库存大于0即可
+        boolean isSuccess = update().setSql("stock = stock - 1").eq("voucher_id", voucherId).gt("stock", 0)
                 .update();
         if (!isSuccess) {
-            return Result.fail("库存不足！");
+            //redis中已经扣减了库存，不能直接确认消息：抛出异常使消息留在待确认列表，
+            //投递次数达到上限后转入死信队列并归还redis中的库存
+            throw new IllegalStateException("数据库库存不足，订单：" + voucherOrder);
         }
 
         //7、创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        //7.1、设置订单id，使用Reids的id生成器
-        long orderId = redisIdWorker.nextId("voucherOrder");
-        voucherOrder.setId(orderId);
-        //7.2、设置优惠券id
-        voucherOrder.setVoucherId(voucherId);
-        //7.3、设置用户id
-        voucherOrder.setUserId(userId);
         voucherOrderMapper.insert(voucherOrder);
-
-        //8、返回订单id
-        return Result.ok(orderId);
     }
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
@@ -7,14 +8,24 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillLocalCache;
+import com.hmdp.utils.SeckillStock;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SECKILL_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SECKILL_VOUCHER_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_KEY;
 
 /**
  * <p>
@@ -30,7 +41,24 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillLocalCache seckillLocalCache;
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 注册优惠券id的布隆过滤器，只查询id列
+     */
+    @PostConstruct
+    public void registerBloomFilter() {
+        bloomFilterRegistry.register(CACHE_VOUCHER_KEY,
+                sink -> listObjs(new QueryWrapper<Voucher>().select("id")).forEach(sink));
+        //秒杀券与优惠券一对一，共用同一个过滤器
+        bloomFilterRegistry.alias(CACHE_SECKILL_VOUCHER_KEY, CACHE_VOUCHER_KEY);
+    }
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -52,7 +80,19 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后再写入redis与本地缓存，事务回滚时不会留下不存在的秒杀券的库存与缓存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                // 保存秒杀库存到Redis中
+                seckillStock.load(Collections.singletonMap(voucher.getId(), voucher.getStock()), true);
+                // 缓存秒杀时间等信息（逻辑过期与本地缓存），下单时不再查询数据库
+                cacheClient.setWithLogicalExpire(CACHE_SECKILL_VOUCHER_KEY + voucher.getId(), seckillVoucher,
+                        CACHE_SECKILL_VOUCHER_TTL, TimeUnit.MINUTES);
+                seckillLocalCache.putVoucher(seckillVoucher);
+                // 加入优惠券布隆过滤器
+                bloomFilterRegistry.add(CACHE_VOUCHER_KEY, voucher.getId());
+            }
+        });
     }
 }
@@ -0,0 +1,431 @@
+package com.hmdp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器，适用于Shop、Voucher、UserDTO等只包含简单类型字段的实体
+ * 数据格式：
+ * [魔数 1字节][版本 1字节][类型 1字节]
+ * [逻辑过期时间 8字节，仅逻辑过期数据][重建耗时 变长，仅带重建耗时的逻辑过期数据]
+ * [字段结构指纹 4字节][字段存在位图][依次写入非空字段的值]
+ * 数值使用ZigZag变长编码，字段按名称排序，结构指纹不一致时（实体字段发生变化）视为无法解码
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    //魔数，json不会以该字节开头
+    public static final byte MAGIC = (byte) 0xFE;
+    //当前的格式版本
+    public static final byte VERSION = 1;
+
+    private static final byte KIND_VALUE = 0;
+    private static final byte KIND_LOGICAL = 1;
+    private static final byte KIND_LOGICAL_WITH_DELTA = 2;
+
+    //每个类型的字段结构，只解析一次
+    private final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length >= 3 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public boolean canEncode(Class<?> type) {
+        return schemaOf(type) != null;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Output out = new Output();
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(KIND_VALUE);
+        writeObject(out, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[1] != VERSION || bytes[2] != KIND_VALUE) {
+            return null;
+        }
+        try {
+            Input in = new Input(bytes, 3);
+            R r = readObject(in, type);
+            return in.hasRemaining() ? null : r;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            //数据被截断或损坏，按未命中处理，由调用方从数据库重建
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Output out = new Output();
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(redisData.getDelta() == null ? KIND_LOGICAL : KIND_LOGICAL_WITH_DELTA);
+        out.writeFixedLong(toEpochMilli(redisData.getExpireTime()));
+        if (redisData.getDelta() != null) {
+            out.writeVarLong(redisData.getDelta());
+        }
+        writeObject(out, redisData.getData());
+        return out.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        if (bytes[1] != VERSION || (bytes[2] != KIND_LOGICAL && bytes[2] != KIND_LOGICAL_WITH_DELTA)) {
+            return null;
+        }
+        try {
+            Input in = new Input(bytes, 3);
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(fromEpochMilli(in.readFixedLong()));
+            if (bytes[2] == KIND_LOGICAL_WITH_DELTA) {
+                redisData.setDelta(in.readVarLong());
+            }
+            Object data = readObject(in, type);
+            if (data == null || in.hasRemaining()) {
+                return null;
+            }
+            redisData.setData(data);
+            return redisData;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    private void writeObject(Output out, Object value) {
+        Schema schema = schemaOf(value.getClass());
+        if (schema == null) {
+            throw new IllegalArgumentException("不支持二进制编码的类型：" + value.getClass().getName());
+        }
+        out.writeFixedInt(schema.fingerprint);
+        Object[] values = new Object[schema.fields.length];
+        byte[] bitmap = new byte[(schema.fields.length + 7) / 8];
+        try {
+            for (int i = 0; i < schema.fields.length; i++) {
+                values[i] = schema.fields[i].get(value);
+                if (values[i] != null) {
+                    bitmap[i >> 3] |= 1 << (i & 7);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        out.write(bitmap);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                writeValue(out, schema.types[i], values[i]);
+            }
+        }
+    }
+
+    private <R> R readObject(Input in, Class<R> type) {
+        Schema schema = schemaOf(type);
+        if (schema == null || in.readFixedInt() != schema.fingerprint) {
+            //实体结构发生了变化，由调用方按未命中处理并重建缓存
+            return null;
+        }
+        try {
+            R r = type.cast(schema.constructor.newInstance());
+            byte[] bitmap = in.readBytes((schema.fields.length + 7) / 8);
+            for (int i = 0; i < schema.fields.length; i++) {
+                if ((bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                    schema.fields[i].set(r, readValue(in, schema.types[i]));
+                }
+            }
+            return r;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeValue(Output out, FieldType type, Object value) {
+        switch (type) {
+            case LONG:
+                out.writeVarLong((Long) value);
+                break;
+            case INT:
+                out.writeVarLong((Integer) value);
+                break;
+            case SHORT:
+                out.writeVarLong((Short) value);
+                break;
+            case BYTE:
+                out.write((Byte) value);
+                break;
+            case BOOLEAN:
+                out.write((byte) ((Boolean) value ? 1 : 0));
+                break;
+            case DOUBLE:
+                out.writeFixedLong(Double.doubleToLongBits((Double) value));
+                break;
+            case FLOAT:
+                out.writeFixedInt(Float.floatToIntBits((Float) value));
+                break;
+            case STRING:
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.writeVarLong(bytes.length);
+                out.write(bytes);
+                break;
+            case LOCAL_DATE_TIME:
+                LocalDateTime time = (LocalDateTime) value;
+                out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                out.writeVarLong(time.getNano());
+                break;
+            default:
+                throw new IllegalArgumentException(type.name());
+        }
+    }
+
+    private Object readValue(Input in, FieldType type) {
+        switch (type) {
+            case LONG:
+                return in.readVarLong();
+            case INT:
+                return (int) in.readVarLong();
+            case SHORT:
+                return (short) in.readVarLong();
+            case BYTE:
+                return in.read();
+            case BOOLEAN:
+                return in.read() != 0;
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readFixedLong());
+            case FLOAT:
+                return Float.intBitsToFloat(in.readFixedInt());
+            case STRING:
+                long length = in.readVarLong();
+                return in.readString(length > Integer.MAX_VALUE ? -1 : (int) length);
+            case LOCAL_DATE_TIME:
+                long seconds = in.readVarLong();
+                int nanos = (int) in.readVarLong();
+                return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+            default:
+                throw new IllegalArgumentException(type.name());
+        }
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        Schema schema = schemas.get(type);
+        if (schema == null) {
+            schema = Schema.of(type);
+            schemas.put(type, schema);
+        }
+        return schema == Schema.UNSUPPORTED ? null : schema;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMilli(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZoneId.systemDefault());
+    }
+
+    /**
+     * 支持的字段类型
+     */
+    private enum FieldType {
+        LONG, INT, SHORT, BYTE, BOOLEAN, DOUBLE, FLOAT, STRING, LOCAL_DATE_TIME;
+
+        static FieldType of(Class<?> type) {
+            if (type == Long.class || type == long.class) return LONG;
+            if (type == Integer.class || type == int.class) return INT;
+            if (type == Short.class || type == short.class) return SHORT;
+            if (type == Byte.class || type == byte.class) return BYTE;
+            if (type == Boolean.class || type == boolean.class) return BOOLEAN;
+            if (type == Double.class || type == double.class) return DOUBLE;
+            if (type == Float.class || type == float.class) return FLOAT;
+            if (type == String.class) return STRING;
+            if (type == LocalDateTime.class) return LOCAL_DATE_TIME;
+            return null;
+        }
+    }
+
+    /**
+     * 一个类型的字段结构
+     */
+    private static class Schema {
+        static final Schema UNSUPPORTED = new Schema(null, new Field[0], new FieldType[0], 0);
+
+        final Constructor<?> constructor;
+        final Field[] fields;
+        final FieldType[] types;
+        final int fingerprint;
+
+        Schema(Constructor<?> constructor, Field[] fields, FieldType[] types, int fingerprint) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.types = types;
+            this.fingerprint = fingerprint;
+        }
+
+        static Schema of(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        fields.add(field);
+                    }
+                }
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+            FieldType[] types = new FieldType[fields.size()];
+            StringBuilder signature = new StringBuilder();
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                types[i] = FieldType.of(field.getType());
+                if (types[i] == null) {
+                    //包含不支持的字段类型，只能使用json编码
+                    return UNSUPPORTED;
+                }
+                field.setAccessible(true);
+                signature.append(field.getName()).append(':').append(types[i]).append(';');
+            }
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                Field[] fieldArray = fields.toArray(new Field[0]);
+                return new Schema(constructor, fieldArray, types, signature.toString().hashCode());
+            } catch (NoSuchMethodException e) {
+                return UNSUPPORTED;
+            }
+        }
+    }
+
+    /**
+     * 写缓冲区
+     */
+    private static class Output extends ByteArrayOutputStream {
+        Output() {
+            super(128);
+        }
+
+        void write(byte b) {
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            super.write(bytes, 0, bytes.length);
+        }
+
+        void writeVarLong(long value) {
+            //ZigZag编码，让绝对值较小的负数也只占用较少的字节
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                super.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            super.write((int) v);
+        }
+
+        void writeFixedInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                super.write(value >>> shift);
+            }
+        }
+
+        void writeFixedLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                super.write((int) (value >>> shift));
+            }
+        }
+    }
+
+    /**
+     * 读缓冲区
+     */
+    private static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        byte read() {
+            require(1);
+            return bytes[position++];
+        }
+
+        byte[] readBytes(int length) {
+            require(length);
+            byte[] result = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return result;
+        }
+
+        String readString(int length) {
+            require(length);
+            String result = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return result;
+        }
+
+        boolean hasRemaining() {
+            return position < bytes.length;
+        }
+
+        /**
+         * 检查剩余的数据是否足够读取指定长度，长度来自数据本身，数据损坏时可能为负数或超出范围
+         */
+        private void require(int length) {
+            if (length < 0 || length > bytes.length - position) {
+                throw new IllegalArgumentException("缓存数据已截断或损坏");
+            }
+        }
+
+        long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (shift >= 64) {
+                    throw new IllegalArgumentException("缓存数据中的varint过长");
+                }
+                b = read();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readFixedInt() {
+            require(4);
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (bytes[position++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readFixedLong() {
+            require(8);
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (bytes[position++] & 0xFF);
+            }
+            return v;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以从库身份订阅MySQL binlog（需要ROW格式），将配置的表的行变更交给缓存失效管道处理
+ * 每个应用节点都会订阅，删除缓存是幂等的，多个节点重复删除没有影响
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hmdp.cache.cdc", name = "enabled", havingValue = "true")
+public class BinlogCacheInvalidator implements BinaryLogClient.EventListener {
+
+    private final CacheInvalidationPipeline pipeline;
+    private final CacheProperties.Cdc properties;
+    private final BinaryLogClient client;
+
+    //binlog中的表id到表名的映射，来自每个行事件之前的TABLE_MAP事件
+    private final Map<Long, String> tableNames = new ConcurrentHashMap<>();
+
+    public BinlogCacheInvalidator(CacheInvalidationPipeline pipeline, CacheProperties cacheProperties) {
+        this.pipeline = pipeline;
+        this.properties = cacheProperties.getCdc();
+        this.client = new BinaryLogClient(properties.getHost(), properties.getPort(),
+                properties.getUsername(), properties.getPassword());
+        this.client.setServerId(properties.getServerId());
+        this.client.registerEventListener(this);
+    }
+
+    /**
+     * 应用启动完成后开始订阅，连接断开后客户端会自动重连
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            client.connect(TimeUnit.SECONDS.toMillis(10));
+            log.info("开始订阅binlog，{}:{}，文件：{}，位置：{}", properties.getHost(), properties.getPort(),
+                    client.getBinlogFilename(), client.getBinlogPosition());
+        } catch (Exception e) {
+            log.error("订阅binlog失败，缓存只能依赖写入路径主动删除", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        client.disconnect();
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        EventData data = event.getData();
+        if (data instanceof TableMapEventData) {
+            TableMapEventData tableMap = (TableMapEventData) data;
+            if (properties.getDatabase() == null || properties.getDatabase().equals(tableMap.getDatabase())) {
+                tableNames.put(tableMap.getTableId(), tableMap.getTable());
+            } else {
+                tableNames.remove(tableMap.getTableId());
+            }
+        } else if (data instanceof WriteRowsEventData) {
+            WriteRowsEventData rows = (WriteRowsEventData) data;
+            String table = tableNames.get(rows.getTableId());
+            if (table != null) {
+                rows.getRows().forEach(row -> accept(table, RowChangeEvent.INSERT, row));
+            }
+        } else if (data instanceof UpdateRowsEventData) {
+            UpdateRowsEventData rows = (UpdateRowsEventData) data;
+            String table = tableNames.get(rows.getTableId());
+            if (table != null) {
+                for (Map.Entry<Serializable[], Serializable[]> row : rows.getRows()) {
+                    accept(table, RowChangeEvent.UPDATE, row.getKey());
+                    //主键被修改时，新旧两个key都需要删除
+                    if (!Objects.equals(primaryKey(row.getKey()), primaryKey(row.getValue()))) {
+                        accept(table, RowChangeEvent.UPDATE, row.getValue());
+                    }
+                }
+            }
+        } else if (data instanceof DeleteRowsEventData) {
+            DeleteRowsEventData rows = (DeleteRowsEventData) data;
+            String table = tableNames.get(rows.getTableId());
+            if (table != null) {
+                rows.getRows().forEach(row -> accept(table, RowChangeEvent.DELETE, row));
+            }
+        }
+    }
+
+    private void accept(String table, String type, Serializable[] row) {
+        pipeline.accept(new RowChangeEvent(table, type, primaryKey(row)));
+    }
+
+    /**
+     * 主键为表的第一列
+     */
+    private static Object primaryKey(Serializable[] row) {
+        return row == null || row.length == 0 ? null : row[0];
+    }
+}
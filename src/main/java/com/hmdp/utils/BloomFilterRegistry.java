@@ -0,0 +1,216 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_ADD_CHANNEL;
+
+/**
+ * 布隆过滤器注册中心，用于拦截缓存穿透
+ * 每种实体（以缓存key前缀区分）一个过滤器，启动时与定时从数据库全量重建；
+ * 新增数据时通过Redis发布订阅广播到所有节点。过滤器构建完成之前一律放行。
+ * 不经过服务方法新增的数据（直接写库、数据迁移等）不会写入过滤器，在下次重建之前会被误拒；
+ * 为此对数值id保留一个近期窗口：大于上次重建时最大id、且不超过 最大id + recentIdWindow 的id
+ * 即使过滤器判断不存在也放行，由缓存空值兜底。窗口之外的id（包括非数值id）仍然要等下次重建
+ */
+@Slf4j
+@Component
+public class BloomFilterRegistry {
+
+    //广播消息中名称与id的分隔符
+    private static final String SEPARATOR = "#";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheProperties.Bloom properties;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    //别名到过滤器名称的映射，同一种实体的多种缓存形式共用一个过滤器
+    private final Map<String, String> aliases = new ConcurrentHashMap<>();
+
+    public BloomFilterRegistry(StringRedisTemplate stringRedisTemplate,
+                               CacheProperties cacheProperties,
+                               RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = cacheProperties.getBloom();
+        if (properties.isEnabled()) {
+            listenerContainer.addMessageListener((message, pattern) -> {
+                String body = new String(message.getBody(), StandardCharsets.UTF_8);
+                int index = body.lastIndexOf(SEPARATOR);
+                if (index > 0) {
+                    putLocal(body.substring(0, index), body.substring(index + 1));
+                }
+            }, new ChannelTopic(BLOOM_FILTER_ADD_CHANNEL));
+        }
+    }
+
+    /**
+     * 注册一个布隆过滤器
+     *
+     * @param name   过滤器名称，通常为缓存key的前缀
+     * @param loader 从数据库加载全部已存在id的函数，将每个id交给传入的Consumer
+     */
+    public void register(String name, Consumer<Consumer<Object>> loader) {
+        if (properties.isEnabled()) {
+            entries.put(name, new Entry(loader));
+        }
+    }
+
+    /**
+     * 为已注册的过滤器添加别名，例如同一种实体的hash缓存前缀使用字符串缓存前缀的过滤器
+     *
+     * @param alias 别名
+     * @param name  过滤器的名称
+     */
+    public void alias(String alias, String name) {
+        aliases.put(alias, name);
+    }
+
+    /**
+     * 判断id是否可能存在
+     *
+     * @return false代表一定不存在；未注册或尚未构建完成的过滤器一律返回true
+     */
+    public boolean mightContain(String name, Object id) {
+        Entry entry = entries.get(aliases.getOrDefault(name, name));
+        if (entry == null || id == null) {
+            return true;
+        }
+        IdBloomFilter filter = entry.filter;
+        return filter == null || filter.mightContain(id) || isRecent(entry, id);
+    }
+
+    /**
+     * 判断id是否位于上次重建之后的近期窗口内
+     */
+    private boolean isRecent(Entry entry, Object id) {
+        long window = properties.getRecentIdWindow();
+        long value = toLong(id);
+        //表为空时从0开始计算窗口
+        long base = Math.max(entry.maxId, 0L);
+        return window > 0 && value > base && value - base <= window;
+    }
+
+    /**
+     * 数值id转换为long，非数值id返回Long.MIN_VALUE
+     */
+    private static long toLong(Object id) {
+        if (id instanceof Number) {
+            return ((Number) id).longValue();
+        }
+        try {
+            return Long.parseLong(id.toString());
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * 新增数据后调用，写入本地过滤器并广播到所有节点
+     */
+    public void add(String alias, Object id) {
+        String name = aliases.getOrDefault(alias, alias);
+        if (!entries.containsKey(name) || id == null) {
+            return;
+        }
+        putLocal(name, id.toString());
+        stringRedisTemplate.convertAndSend(BLOOM_FILTER_ADD_CHANNEL, name + SEPARATOR + id);
+    }
+
+    /**
+     * 应用启动完成后构建所有过滤器
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        rebuildAll();
+    }
+
+    /**
+     * 定时从数据库全量重建，清除已删除的数据，并修复可能丢失的广播
+     */
+    @Scheduled(initialDelayString = "${hmdp.cache.bloom.rebuild-interval-millis:3600000}",
+            fixedDelayString = "${hmdp.cache.bloom.rebuild-interval-millis:3600000}")
+    public void rebuildAll() {
+        entries.keySet().forEach(this::rebuild);
+    }
+
+    /**
+     * 从数据库全量重建指定的过滤器，重建期间新增的id同时写入新旧两个过滤器
+     */
+    public void rebuild(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        IdBloomFilter building = new IdBloomFilter(properties.getExpectedInsertions(), properties.getFpp());
+        synchronized (entry) {
+            entry.building = building;
+        }
+        long[] count = {0};
+        long[] maxId = {Long.MIN_VALUE};
+        try {
+            entry.loader.accept(id -> {
+                building.put(id);
+                count[0]++;
+                maxId[0] = Math.max(maxId[0], toLong(id));
+            });
+        } catch (Exception e) {
+            log.error("重建布隆过滤器失败：{}", name, e);
+            synchronized (entry) {
+                entry.building = null;
+            }
+            return;
+        }
+        synchronized (entry) {
+            entry.filter = building;
+            entry.maxId = maxId[0];
+            entry.building = null;
+        }
+        if (count[0] > properties.getExpectedInsertions()) {
+            log.warn("布隆过滤器 {} 的元素个数 {} 超出预期容量，误判率将升高", name, count[0]);
+        }
+        log.info("布隆过滤器 {} 重建完成，共 {} 个id，耗时 {} ms", name, count[0], System.currentTimeMillis() - begin);
+    }
+
+    private void putLocal(String name, Object id) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.filter != null) {
+                entry.filter.put(id);
+            }
+            if (entry.building != null) {
+                entry.building.put(id);
+            }
+        }
+    }
+
+    private static class Entry {
+        final Consumer<Consumer<Object>> loader;
+        //当前生效的过滤器，首次构建完成前为null
+        volatile IdBloomFilter filter;
+        //正在重建中的过滤器
+        volatile IdBloomFilter building;
+        //当前生效的过滤器构建时的最大数值id
+        volatile long maxId = Long.MIN_VALUE;
+
+        Entry(Consumer<Consumer<Object>> loader) {
+            this.loader = loader;
+        }
+    }
+}
@@ -1,17 +1,42 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_TTL;
 
 
 /**
@@ -30,21 +55,120 @@ public class CacheClient {
     public static final TimeUnit CACHE_NULL_TIME_UNIT = TimeUnit.MINUTES;
     //互斥锁对应的key
     public static final String LOCK_KEY = "lock:";
-    //获取互斥锁失败后的等待时间（单位毫秒）
-    public static final Long SPIN_WAIT_MILLISECOND = 50L;
 
-    //使用构造函数注入StringRedisTemplate
+    //缓存中的空值，用于解决缓存穿透
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    //带版本校验的缓存写入脚本，查询数据库期间版本号变化时拒绝写入
+    private static final DefaultRedisScript<Long> CACHE_SET_SCRIPT;
+    //递增版本号并删除缓存的脚本
+    private static final DefaultRedisScript<Long> CACHE_INVALIDATE_SCRIPT;
+    //带版本校验的hash缓存写入脚本
+    private static final DefaultRedisScript<Long> CACHE_HASH_SET_SCRIPT;
+    //原地更新hash缓存单个字段的脚本
+    private static final DefaultRedisScript<Long> CACHE_HASH_UPDATE_SCRIPT;
+
+    static {
+        CACHE_SET_SCRIPT = new DefaultRedisScript<>();
+        CACHE_SET_SCRIPT.setLocation(new ClassPathResource("cache_set.lua"));
+        CACHE_SET_SCRIPT.setResultType(Long.class);
+        CACHE_INVALIDATE_SCRIPT = new DefaultRedisScript<>();
+        CACHE_INVALIDATE_SCRIPT.setLocation(new ClassPathResource("cache_invalidate.lua"));
+        CACHE_INVALIDATE_SCRIPT.setResultType(Long.class);
+        CACHE_HASH_SET_SCRIPT = new DefaultRedisScript<>();
+        CACHE_HASH_SET_SCRIPT.setLocation(new ClassPathResource("cache_hash_set.lua"));
+        CACHE_HASH_SET_SCRIPT.setResultType(Long.class);
+        CACHE_HASH_UPDATE_SCRIPT = new DefaultRedisScript<>();
+        CACHE_HASH_UPDATE_SCRIPT.setLocation(new ClassPathResource("cache_hash_update.lua"));
+        CACHE_HASH_UPDATE_SCRIPT.setResultType(Long.class);
+    }
+
+    //实体与redis hash之间的转换
+    private final HashCacheCodec hashCodec = new HashCacheCodec();
+
+    //使用构造函数注入StringRedisTemplate，用于互斥锁与发布订阅
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    //读写缓存值的RedisTemplate，value为编码后的原始字节
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    //缓存值的编解码器
+    private final CacheCodecs cacheCodecs;
+
+    //概率提前重建的系数，越大越倾向于提前重建
+    private final double earlyRecomputeBeta;
+
+    //布隆过滤器，拦截一定不存在的id，解决缓存穿透
+    private final BloomFilterRegistry bloomFilterRegistry;
+
+    //本地一级缓存，保存已经反序列化好的对象，未启用时为null
+    private final Cache<String, Object> localCache;
+
+    //热点key探测
+    private final HotKeyDetector hotKeyDetector;
+
+    //热点key的本地副本，TTL很短，只保存被识别为热点的key
+    private final Cache<String, Object> hotReplica;
+
+    //互斥锁释放通知，等待锁的线程在锁释放后立即被唤醒
+    private final LockReleaseNotifier lockReleaseNotifier;
+
+    //按key前缀统计的缓存指标
+    private final CacheMetrics cacheMetrics;
+
+    //共享的缓存重建调度器，按key去重
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    //逻辑过期key的提前刷新
+    private final RefreshAheadScheduler refreshAheadScheduler;
+
+    //提前刷新的提前量（毫秒）
+    private final long refreshAheadLeadMillis;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> byteRedisTemplate,
+                       CacheCodecs cacheCodecs,
+                       CacheProperties cacheProperties,
+                       RedisMessageListenerContainer listenerContainer,
+                       LockReleaseNotifier lockReleaseNotifier,
+                       BloomFilterRegistry bloomFilterRegistry,
+                       HotKeyDetector hotKeyDetector,
+                       CacheMetrics cacheMetrics,
+                       CacheRebuildScheduler rebuildScheduler,
+                       RefreshAheadScheduler refreshAheadScheduler) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.cacheCodecs = cacheCodecs;
+        this.earlyRecomputeBeta = cacheProperties.getEarlyRecompute().getBeta();
+        this.lockReleaseNotifier = lockReleaseNotifier;
+        this.bloomFilterRegistry = bloomFilterRegistry;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        this.rebuildScheduler = rebuildScheduler;
+        this.refreshAheadScheduler = refreshAheadScheduler;
+        this.refreshAheadLeadMillis = cacheProperties.getRefreshAhead().getLeadMillis();
+        CacheProperties.Local local = cacheProperties.getLocal();
+        //有界的LRU缓存，条目在写入ttlSeconds秒后过期
+        this.localCache = local.isEnabled()
+                ? CacheUtil.newLRUCache(local.getMaximumSize(), TimeUnit.SECONDS.toMillis(local.getTtlSeconds()))
+                : null;
+        CacheProperties.HotKey hotKey = cacheProperties.getHotKey();
+        this.hotReplica = hotKey.isEnabled()
+                ? CacheUtil.newLRUCache(hotKey.getMaxHotKeys(), hotKey.getReplicaTtlMillis())
+                : null;
+        if (localCache != null || hotReplica != null) {
+            //订阅缓存失效频道，任意节点删除缓存时，所有节点同步清除本地缓存
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        }
     }
 
-    //创建拥有十个线程的线程池，用来重建缓存，避免经常创建销毁线程
-    private final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    //进程内请求合并，同一节点上同一key的并发未命中只查询一次数据库
+    private final SingleFlight singleFlight = new SingleFlight();
 
     /**
-     * 将任意Java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间
+     * 将任意Java对象编码（json或二进制）后存储在string类型的key中，并且可以设置TTL过期时间
      *
      * @param key      String类型的Key
      * @param value    任意类型的对象
@@ -52,11 +176,12 @@ public class CacheClient {
      * @param timeUnit 时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, timeUnit);
+        byteRedisTemplate.opsForValue().set(key, cacheCodecs.encode(value), time, timeUnit);
+        putLocal(key, value);
     }
 
     /**
-     * 将任意Java对象序列化为json并存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题
+     * 将任意Java对象编码（json或二进制）后存储在string类型的key中，并且可以设置逻辑过期时间，用于处理缓存击穿问题
      *
      * @param key      String类型的Key
      * @param value    任意类型的对象
@@ -69,7 +194,196 @@ public class CacheClient {
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
         //写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byteRedisTemplate.opsForValue().set(key, cacheCodecs.encodeLogical(redisData));
+        putLocal(key, redisData);
+    }
+
+    /**
+     * 批量预热以 set 形式缓存的数据（缓存空值、互斥锁策略读取的key），数据带有TTL
+     *
+     * @param keyPrefix       key的前缀
+     * @param ids             id集合
+     * @param batchDbFallback 根据id集合批量查询数据库的函数，返回id到对象的映射
+     * @param time            过期时间
+     * @param timeUnit        时间单位
+     * @return 写入的key数量
+     */
+    public <R, ID> int warmUpBatch(String keyPrefix,
+                                   Collection<ID> ids,
+                                   Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+                                   Long time,
+                                   TimeUnit timeUnit) {
+        return setBatchIfVersionsMatch(keyPrefix, ids, batchDbFallback, cacheCodecs::encode, timeUnit.toMillis(time));
+    }
+
+    /**
+     * 批量预热带逻辑过期时间的数据（逻辑过期策略读取的key），逻辑过期的key不设置TTL
+     *
+     * @param keyPrefix       key的前缀
+     * @param ids             id集合
+     * @param batchDbFallback 根据id集合批量查询数据库的函数，返回id到对象的映射
+     * @param time            逻辑过期时间
+     * @param timeUnit        时间单位
+     * @return 写入的key数量
+     */
+    public <R, ID> int warmUpBatchWithLogicalExpire(String keyPrefix,
+                                                    Collection<ID> ids,
+                                                    Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+                                                    Long time,
+                                                    TimeUnit timeUnit) {
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time));
+        return setBatchIfVersionsMatch(keyPrefix, ids, batchDbFallback, value -> {
+            RedisData redisData = new RedisData();
+            redisData.setData(value);
+            redisData.setExpireTime(expireTime);
+            return cacheCodecs.encodeLogical(redisData);
+        }, 0L);
+    }
+
+    /**
+     * 先批量读取版本号再查询数据库，使用管道批量执行带版本校验的写入，预热期间被更新过的数据不会被旧数据覆盖；
+     * 写入成功的key清除本地缓存并广播失效消息，其他节点的本地缓存不会继续返回预热之前的数据。
+     * 数据库中不存在的id不写入
+     *
+     * @param ttlMillis 过期时间（单位毫秒），0代表不过期
+     * @return 写入的key数量
+     */
+    private <R, ID> int setBatchIfVersionsMatch(String keyPrefix,
+                                                Collection<ID> ids,
+                                                Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+                                                Function<R, byte[]> encoder,
+                                                long ttlMillis) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        //1、查询数据库之前读取版本号
+        List<ID> idList = new ArrayList<>(ids);
+        List<String> keys = idList.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> versions = stringRedisTemplate.opsForValue().multiGet(
+                keys.stream().map(key -> CACHE_VERSION_KEY + key).collect(Collectors.toList()));
+        //2、合并为一次数据库查询
+        Map<ID, R> dbResult = cacheMetrics.timeDbFallback(keyPrefix, batchDbFallback).apply(idList);
+        Map<ID, R> found = dbResult == null ? Collections.emptyMap() : dbResult;
+        //3、使用管道批量执行带版本校验的写入
+        byte[] script = CACHE_SET_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        byte[] ttl = String.valueOf(ttlMillis).getBytes(StandardCharsets.UTF_8);
+        List<String> writtenKeys = new ArrayList<>(found.size());
+        for (int i = 0; i < idList.size(); i++) {
+            if (found.get(idList.get(i)) != null) {
+                writtenKeys.add(keys.get(i));
+            }
+        }
+        if (writtenKeys.isEmpty()) {
+            return 0;
+        }
+        List<Object> written = byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < idList.size(); i++) {
+                R r = found.get(idList.get(i));
+                if (r == null) {
+                    continue;
+                }
+                String key = keys.get(i);
+                String version = versions == null || versions.get(i) == null ? "0" : versions.get(i);
+                connection.eval(script, ReturnType.INTEGER, 2,
+                        key.getBytes(StandardCharsets.UTF_8),
+                        (CACHE_VERSION_KEY + key).getBytes(StandardCharsets.UTF_8),
+                        version.getBytes(StandardCharsets.UTF_8),
+                        encoder.apply(r),
+                        ttl);
+            }
+            return null;
+        });
+        //4、写入成功的key通知所有节点清除本地缓存，写入被拒绝的key保留更新后的数据
+        List<String> updatedKeys = new ArrayList<>(writtenKeys.size());
+        for (int i = 0; i < writtenKeys.size(); i++) {
+            if (Long.valueOf(1L).equals(written.get(i))) {
+                updatedKeys.add(writtenKeys.get(i));
+            }
+        }
+        if (!updatedKeys.isEmpty()) {
+            byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : updatedKeys) {
+                    connection.publish(channel, key.getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            updatedKeys.forEach(this::evictLocal);
+        }
+        return updatedKeys.size();
+    }
+
+    /**
+     * 存储数据、重建耗时与过期时间，用于概率提前重建，key同时设置真实的TTL，冷数据到期后自然删除
+     *
+     * @param key      String类型的Key
+     * @param value    任意类型的对象
+     * @param delta    重建该数据花费的时间（单位毫秒）
+     * @param time     过期时间
+     * @param timeUnit 时间单位
+     */
+    public void setWithEarlyRecompute(String key, Object value, long delta, Long time, TimeUnit timeUnit) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setDelta(delta);
+        redisData.setExpireTime(LocalDateTime.now().plusNanos(timeUnit.toNanos(time)));
+        byteRedisTemplate.opsForValue().set(key, cacheCodecs.encodeLogical(redisData), time, timeUnit);
+        putLocal(key, redisData);
+    }
+
+    /**
+     * 删除缓存，并通过Redis发布订阅通知所有节点清除本地缓存中的对应条目
+     * 删除前递增key的版本号，正在查询数据库的线程写回旧数据时会被拒绝；
+     * 在事务中调用时，等事务提交后再删除，否则其他线程可能在提交前读到旧数据并以新版本号写回
+     *
+     * @param key String类型的Key
+     */
+    public void delete(String key) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    invalidate(key);
+                }
+            });
+            return;
+        }
+        invalidate(key);
+    }
+
+    /**
+     * 批量删除缓存，使用管道一次发送，用于由数据库变更驱动的失效，不等待事务提交
+     *
+     * @param keys 需要删除的key
+     */
+    public void deleteBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        byte[] script = CACHE_INVALIDATE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        byte[] versionTtl = String.valueOf(TimeUnit.HOURS.toMillis(CACHE_VERSION_TTL)).getBytes(StandardCharsets.UTF_8);
+        byte[] channel = CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                connection.eval(script, ReturnType.INTEGER, 2,
+                        rawKey, (CACHE_VERSION_KEY + key).getBytes(StandardCharsets.UTF_8), versionTtl);
+                connection.publish(channel, rawKey);
+            }
+            return null;
+        });
+        keys.forEach(this::evictLocal);
+    }
+
+    /**
+     * 递增版本号、删除缓存并广播失效消息
+     */
+    private void invalidate(String key) {
+        stringRedisTemplate.execute(CACHE_INVALIDATE_SCRIPT, Arrays.asList(key, CACHE_VERSION_KEY + key),
+                String.valueOf(TimeUnit.HOURS.toMillis(CACHE_VERSION_TTL)));
+        evictLocal(key);
+        //即使当前节点未启用本地缓存，其他节点也可能启用了，因此总是发布失效消息
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
     }
 
     /**
@@ -91,30 +405,53 @@ public class CacheClient {
                                           Function<ID, R> dbFallback,
                                           Long time,
                                           TimeUnit timeUnit) {
-        //1、从redis中根据id查询商铺
+        //0、布隆过滤器判断id一定不存在时直接返回，不访问redis与数据库
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_BLOOM_REJECT);
+            return null;
+        }
+        //1、先查本地缓存，命中则无需访问redis
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2、判断是否存在记录
-        if (StrUtil.isNotBlank(json)) {
-            //存在，返回数据
-            return JSONUtil.toBean(json, type);
+        R local = getLocal(key, type);
+        if (local != null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_LOCAL_HIT);
+            return local;
         }
-
-        //3、判断记录是否为空值
-        if (json != null) {
+        //从redis中根据id查询商铺
+        byte[] raw = byteRedisTemplate.opsForValue().get(key);
+        //2、判断是否存在记录
+        if (isNotEmpty(raw)) {
+            //存在，解码后写入本地缓存并返回数据
+            R r = cacheCodecs.decode(raw, type);
+            if (r != null) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_HIT);
+                putLocal(key, r);
+                return r;
+            }
+            //数据无法解码（实体结构已变化），按未命中处理
+        } else if (raw != null) {
+            //3、记录为空值
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_NULL_HIT);
             return null;
         }
+        cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
+        //记录数据库回源耗时
+        Function<ID, R> timedDbFallback = cacheMetrics.timeDbFallback(keyPrefix, dbFallback);
 
-        //4、查询数据库
-        R r = dbFallback.apply(id);
-        //5、数据库是否存在记录，如果不存在，将空字符串写入redis，避免缓存穿透
-        if (r == null) {
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, CACHE_NULL_TIME_UNIT);
-            return null;
-        }
-        //7、如果存在，将保存数据到redis，并返回数据
-        this.set(key, r, time, timeUnit);
-        return r;
+        //4、查询数据库，同一节点上并发的未命中请求合并为一次查询
+        return singleFlight.execute(key, () -> {
+            //查询数据库之前读取版本号，写回时版本号已变化说明数据被更新过，放弃写回
+            String version = currentVersion(key);
+            R r = timedDbFallback.apply(id);
+            //5、数据库是否存在记录，如果不存在，将空值写入redis，避免缓存穿透
+            if (r == null) {
+                setNullValue(key, version);
+                return null;
+            }
+            //7、如果存在，将保存数据到redis，并返回数据
+            setIfVersionMatches(key, r, cacheCodecs.encode(r), version, timeUnit.toMillis(time));
+            return r;
+        });
     }
 
 
@@ -137,57 +474,228 @@ public class CacheClient {
                                             Function<ID, R> dbFallback,
                                             Long time,
                                             TimeUnit timeUnit) {
-        //1、从redis中根据id查询商铺
+        //0、布隆过滤器判断id一定不存在时直接返回，不访问redis与数据库
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_BLOOM_REJECT);
+            return null;
+        }
+        //1、先查本地缓存，本地缓存中的数据未逻辑过期则直接返回
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        RedisData localData = getLocal(key, RedisData.class);
+        if (localData != null && type.isInstance(localData.getData())
+                && localData.getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_LOCAL_HIT);
+            trackRefreshAhead(keyPrefix, id, type, dbFallback, time, timeUnit, localData.getExpireTime());
+            return type.cast(localData.getData());
+        }
+        //从redis中根据id查询商铺
+        byte[] raw = byteRedisTemplate.opsForValue().get(key);
         //2、缓存未命中，返回空数据
-        if (StrUtil.isBlank(json)) {
+        if (!isNotEmpty(raw)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
             return null;
         }
-        //3、缓存命中，反序列化为对象，然后提取数据与逻辑过期时间
-        RedisData cacheData = JSONUtil.toBean(json, RedisData.class);
+        //3、缓存命中，解码后提取数据与逻辑过期时间（只解析一次）
+        RedisData cacheData = cacheCodecs.decodeLogical(raw, type);
+        if (cacheData == null || cacheData.getData() == null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
+            return null;
+        }
+        //逻辑过期的数据无论是否过期都会返回，因此都记为命中
+        cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_HIT);
         LocalDateTime expireTime = cacheData.getExpireTime();
-        R r = JSONUtil.toBean((JSONObject) cacheData.getData(), type);
+        R r = type.cast(cacheData.getData());
+        //登记访问，热点key在逻辑过期之前由后台提前刷新
+        trackRefreshAhead(keyPrefix, id, type, dbFallback, time, timeUnit, expireTime);
 
         //3.1、判断缓存中的逻辑时间是否过期
         if (expireTime.isAfter(LocalDateTime.now())) {
-            //3.2、缓存未过期，直接返回数据
+            //3.2、缓存未过期，写入本地缓存（保存反序列化后的对象）并返回数据
+            RedisData data = new RedisData();
+            data.setData(r);
+            data.setExpireTime(expireTime);
+            putLocal(key, data);
             return r;
         }
 
         //4、缓存过期，需要进行缓存重建
-        //4.1、尝试获取互斥锁
-        String lockKey = LOCK_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //4.2、互斥锁获取成功
-        if (isLock) {
-            //4.3、再次检测redis缓存是否过期，做DoubleCheck
-            String doubleCheckCacheStr = stringRedisTemplate.opsForValue().get(key);
-            RedisData redisData = JSONUtil.toBean(doubleCheckCacheStr, RedisData.class);
-            LocalDateTime newExpireTime = redisData.getExpireTime();
-            R newR = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-            //4.3、缓存未过期（已经有线程重建完成了），则返回数据
-            if (newExpireTime.isAfter(LocalDateTime.now())) {
-                return newR;
-            }
-            //4.4 缓存仍过期 （还没有其他的线程重建缓存），创建独立线程，重建缓存
-            //将重建工作交给线程池完成
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //查询数据库
-                    R dbR = dbFallback.apply(id);
-                    //重建缓存
-                    this.setWithLogicalExpire(key, dbR, time, timeUnit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //4.5释放锁
-                    unlock(lockKey);
+        R rebuilt = rebuildLogicalAsync(keyPrefix, id, type, dbFallback, time, timeUnit, 0L);
+        //5、已经有线程重建完成时返回新数据，否则返回过期的商铺信息
+        return rebuilt != null ? rebuilt : r;
+    }
+
+    /**
+     * 获取互斥锁后，将逻辑过期数据的重建提交给重建调度器异步执行
+     *
+     * @param leadMillis DoubleCheck时距离逻辑过期超过该时间才认为不需要重建，
+     *                   已过期的数据传0，提前刷新传提前量，否则尚未过期的数据永远不会被提前重建
+     * @return 做DoubleCheck时发现其他线程已经重建完成，返回新数据；否则返回null
+     */
+    private <R, ID> R rebuildLogicalAsync(String keyPrefix,
+                                          ID id,
+                                          Class<R> type,
+                                          Function<ID, R> dbFallback,
+                                          Long time,
+                                          TimeUnit timeUnit,
+                                          long leadMillis) {
+        String key = keyPrefix + id;
+        //4.1、尝试获取互斥锁，锁按完整的key区分，不同前缀下相同的id不会互相阻塞
+        String lockKey = LOCK_KEY + key;
+        if (!tryLock(lockKey)) {
+            cacheMetrics.lockFailure(keyPrefix);
+            return null;
+        }
+        //4.2、互斥锁获取成功，再次检测redis缓存是否过期，做DoubleCheck
+        byte[] doubleCheckRaw = byteRedisTemplate.opsForValue().get(key);
+        RedisData redisData = isNotEmpty(doubleCheckRaw) ? cacheCodecs.decodeLogical(doubleCheckRaw, type) : null;
+        //4.3、缓存未过期（已经有线程重建完成了），则释放锁并返回数据
+        if (redisData != null && redisData.getData() != null
+                && redisData.getExpireTime().isAfter(LocalDateTime.now().plus(leadMillis, ChronoUnit.MILLIS))) {
+            unlock(lockKey);
+            return type.cast(redisData.getData());
+        }
+        //4.4 缓存仍过期 （还没有其他的线程重建缓存），将重建工作交给共享的重建调度器完成
+        Function<ID, R> timedDbFallback = cacheMetrics.timeDbFallback(keyPrefix, dbFallback);
+        boolean accepted = rebuildScheduler.submit(key, () -> {
+            try {
+                //查询数据库
+                String version = currentVersion(key);
+                R dbR = timedDbFallback.apply(id);
+                //重建缓存，查询期间数据被更新过则放弃写回
+                RedisData rebuilt = new RedisData();
+                rebuilt.setData(dbR);
+                rebuilt.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
+                if (setIfVersionMatches(key, rebuilt, cacheCodecs.encodeLogical(rebuilt), version, 0L)) {
+                    //以实际写入的逻辑过期时间开始下一个提前刷新周期
+                    refreshAheadScheduler.refreshed(key, rebuilt.getExpireTime());
                 }
-            });
+            } finally {
+                //4.5释放锁
+                unlock(lockKey);
+            }
+        });
+        if (!accepted) {
+            //任务被去重或丢弃，不会执行，立即释放锁，下次访问时再尝试重建
+            unlock(lockKey);
         }
-        //5、返回过期的商铺信息
-        return r;
+        return null;
+    }
+
+    /**
+     * 登记逻辑过期key的访问，由提前刷新调度器在逻辑过期之前重建仍然热门的key
+     */
+    private <R, ID> void trackRefreshAhead(String keyPrefix,
+                                           ID id,
+                                           Class<R> type,
+                                           Function<ID, R> dbFallback,
+                                           Long time,
+                                           TimeUnit timeUnit,
+                                           LocalDateTime expireTime) {
+        refreshAheadScheduler.track(keyPrefix + id, expireTime, timeUnit.toMillis(time),
+                () -> rebuildLogicalAsync(keyPrefix, id, type, dbFallback, time, timeUnit, refreshAheadLeadMillis));
+    }
+
+    /**
+     * 根据指定的key查询缓存，利用概率提前重建（XFetch）解决缓存击穿问题
+     * 缓存中同时保存了数据的重建耗时delta与过期时间expiry，每次读取时如果满足
+     * now - delta * beta * ln(random) >= expiry 则由当前请求提前重建缓存，
+     * 越接近过期、重建越慢，提前重建的概率越大，因此热点key通常在真正过期之前就被某一个请求刷新；
+     * 与逻辑过期不同，key不需要预热，也会在TTL到期后自然删除
+     *
+     * @param keyPrefix  key的前缀
+     * @param id         id
+     * @param type       需要返回对象的Class类型
+     * @param dbFallback 根据id查询数据库
+     * @param time       过期时间
+     * @param timeUnit   时间单位
+     * @param <R>        需要返回的对象类型的泛型
+     * @param <ID>       id的泛型
+     * @return
+     */
+    public <R, ID> R queryWithEarlyRecompute(String keyPrefix,
+                                             ID id,
+                                             Class<R> type,
+                                             Function<ID, R> dbFallback,
+                                             Long time,
+                                             TimeUnit timeUnit) {
+        //0、布隆过滤器判断id一定不存在时直接返回，不访问redis与数据库
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_BLOOM_REJECT);
+            return null;
+        }
+        //1、先查本地缓存，无需提前重建则直接返回
+        String key = keyPrefix + id;
+        RedisData localData = getLocal(key, RedisData.class);
+        if (localData != null && type.isInstance(localData.getData()) && !shouldRecomputeEarly(localData)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_LOCAL_HIT);
+            return type.cast(localData.getData());
+        }
+        //从redis中查询
+        byte[] raw = byteRedisTemplate.opsForValue().get(key);
+        if (raw != null && raw.length == 0) {
+            //2、记录为空值
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_NULL_HIT);
+            return null;
+        }
+        //记录数据库回源耗时
+        Function<ID, R> timedDbFallback = cacheMetrics.timeDbFallback(keyPrefix, dbFallback);
+        RedisData cacheData = isNotEmpty(raw) ? cacheCodecs.decodeLogical(raw, type) : null;
+        if (cacheData == null || cacheData.getData() == null || cacheData.getDelta() == null) {
+            //3、缓存未命中，同一节点上并发的未命中请求合并为一次重建
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
+            return singleFlight.execute(key, () -> recompute(key, id, timedDbFallback, time, timeUnit));
+        }
+        R r = type.cast(cacheData.getData());
+        cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_HIT);
+        //4、缓存命中，按概率判断是否需要提前重建
+        if (!shouldRecomputeEarly(cacheData)) {
+            putLocal(key, cacheData);
+            return r;
+        }
+        //5、需要提前重建，只有获取到互斥锁的请求进行重建，其余请求继续返回当前数据
+        String lockKey = LOCK_KEY + key;
+        if (!tryLock(lockKey)) {
+            cacheMetrics.lockFailure(keyPrefix);
+            return r;
+        }
+        try {
+            return recompute(key, id, timedDbFallback, time, timeUnit);
+        } finally {
+            unlock(lockKey);
+        }
+    }
+
+    /**
+     * 查询数据库并记录耗时，将数据与耗时一起写入缓存
+     */
+    private <R, ID> R recompute(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String version = currentVersion(key);
+        long begin = System.currentTimeMillis();
+        R dbR = dbFallback.apply(id);
+        long delta = System.currentTimeMillis() - begin;
+        if (dbR == null) {
+            //数据库中不存在，写入空值，避免缓存穿透
+            setNullValue(key, version);
+            return null;
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(dbR);
+        redisData.setDelta(delta);
+        redisData.setExpireTime(LocalDateTime.now().plusNanos(timeUnit.toNanos(time)));
+        setIfVersionMatches(key, redisData, cacheCodecs.encodeLogical(redisData), version, timeUnit.toMillis(time));
+        return dbR;
+    }
+
+    /**
+     * XFetch判断：now - delta * beta * ln(random) >= expiry 时需要提前重建
+     */
+    private boolean shouldRecomputeEarly(RedisData redisData) {
+        long delta = redisData.getDelta() == null ? 0L : redisData.getDelta();
+        long expiry = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        //random取值(0,1]，ln(random) <= 0
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        double gap = -delta * earlyRecomputeBeta * Math.log(random);
+        return System.currentTimeMillis() + gap >= expiry;
     }
 
     /**
@@ -209,58 +717,567 @@ public class CacheClient {
                                     Function<ID, R> dbFallback,
                                     Long time,
                                     TimeUnit timeUnit) {
-        //1、从redis中根据id查询商铺
+        //0、布隆过滤器判断id一定不存在时直接返回，不访问redis与数据库
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_BLOOM_REJECT);
+            return null;
+        }
+        //1、先查本地缓存，命中则无需访问redis
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2、判断是否存在记录
-        if (StrUtil.isNotBlank(json)) {
-            //存在，返回数据
-            return JSONUtil.toBean(json, type);
+        R local = getLocal(key, type);
+        if (local != null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_LOCAL_HIT);
+            return local;
         }
-
-        //3、判断记录是否为空值
-        if (json != null) {
+        //从redis中根据id查询商铺
+        byte[] raw = byteRedisTemplate.opsForValue().get(key);
+        //2、判断是否存在记录
+        if (isNotEmpty(raw)) {
+            //存在，解码后写入本地缓存并返回数据
+            R r = cacheCodecs.decode(raw, type);
+            if (r != null) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_HIT);
+                putLocal(key, r);
+                return r;
+            }
+            //数据无法解码（实体结构已变化），按未命中处理
+        } else if (raw != null) {
+            //3、记录为空值
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_NULL_HIT);
             return null;
         }
+        cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
+        //记录数据库回源耗时
+        Function<ID, R> timedDbFallback = cacheMetrics.timeDbFallback(keyPrefix, dbFallback);
 
         //4、redis 查询结果为null缓存失效，尝试重建缓存
-        String lockKey = LOCK_KEY + id;
+        //同一节点上的并发请求合并，只有leader线程去竞争分布式锁并查询数据库，其余线程共享结果
+        return singleFlight.execute(key, () -> rebuildWithMutex(keyPrefix, id, type, timedDbFallback, time, timeUnit));
+    }
+
+    /**
+     * 获取互斥锁后重建缓存，由single-flight的leader线程执行
+     *
+     * @param keyPrefix  key的前缀
+     * @param id         id
+     * @param type       需要返回对象的Class类型
+     * @param dbFallback 根据id查询数据库
+     * @param time       过期时间
+     * @param timeUnit   时间单位
+     * @param <R>        需要返回的对象类型的泛型
+     * @param <ID>       id的泛型
+     * @return 重建后的数据
+     */
+    private <R, ID> R rebuildWithMutex(String keyPrefix,
+                                       ID id,
+                                       Class<R> type,
+                                       Function<ID, R> dbFallback,
+                                       Long time,
+                                       TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        String lockKey = LOCK_KEY + key;
         R dbR = null; //  缓存重建线程需要使用的数据
+        boolean isLock = false;
         try {
-            //自旋等待，尝试获取互斥锁
-            while (!tryLock(lockKey)) {
-                // 获取锁失败，休眠一段时间后重试
-                Thread.sleep(SPIN_WAIT_MILLISECOND);
+            long deadline = lockReleaseNotifier.deadline();
+            while (true) {
+                //先登记等待再尝试获取锁，避免错过两次操作之间的释放通知
+                CountDownLatch latch = lockReleaseNotifier.watch(lockKey);
+                boolean notified;
+                try {
+                    isLock = tryLock(lockKey);
+                    if (isLock) {
+                        break;
+                    }
+                    // 获取锁失败，等待锁释放通知（最多等到deadline），唤醒后直接读取重建好的缓存
+                    cacheMetrics.lockFailure(keyPrefix);
+                    notified = lockReleaseNotifier.await(latch, deadline);
+                } finally {
+                    lockReleaseNotifier.unwatch(lockKey, latch);
+                }
+                cacheMetrics.lockSpin(keyPrefix);
+                byte[] raw = byteRedisTemplate.opsForValue().get(key);
+                if (raw != null && raw.length == 0) {
+                    return null;
+                }
+                R rebuilt = isNotEmpty(raw) ? cacheCodecs.decode(raw, type) : null;
+                if (rebuilt != null) {
+                    return rebuilt;
+                }
+                if (!notified && System.currentTimeMillis() >= deadline) {
+                    //等待超时，持有锁的线程可能已经异常，降级为直接查询数据库，不写缓存
+                    return dbFallback.apply(id);
+                }
             }
 
             //4.2、获取锁成功,再次查询缓存
-            String newJson = stringRedisTemplate.opsForValue().get(key);
+            byte[] newRaw = byteRedisTemplate.opsForValue().get(key);
+            //缓存的是空值，直接返回
+            if (newRaw != null && newRaw.length == 0) {
+                return null;
+            }
             //缓存有效，直接返回
-            if (StrUtil.isNotBlank(newJson)) {
-                //存在，返回数据
-                return JSONUtil.toBean(newJson, type);
+            R cached = isNotEmpty(newRaw) ? cacheCodecs.decode(newRaw, type) : null;
+            if (cached != null) {
+                return cached;
             }
 
-            //4.3、缓存无效，查询数据库重建缓存
+            //4.3、缓存无效，查询数据库重建缓存，查询之前读取版本号
+            String version = currentVersion(key);
             dbR = dbFallback.apply(id);
             //数据库是否存在记录
             if (dbR == null) {
                 //不存在，将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, CACHE_NULL_TIME_UNIT);
+                setNullValue(key, version);
                 return null;
             }
-            //存在，保存数据到redis，返回数据
-            this.set(key, dbR, time, timeUnit);
+            //存在，版本号未变化时保存数据到redis，返回数据
+            setIfVersionMatches(key, dbR, cacheCodecs.encode(dbR), version, timeUnit.toMillis(time));
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         } finally {
-            //5、释放锁
-            unlock(lockKey);
+            //5、释放锁，只释放自己持有的锁
+            if (isLock) {
+                unlock(lockKey);
+            }
         }
         //返回数据
         return dbR;
     }
 
+    /**
+     * 批量查询缓存，一次MGET读取所有key，未命中的id合并为一次数据库查询，
+     * 再用管道批量写回redis，数据库中不存在的id同样缓存空值，避免缓存穿透
+     *
+     * @param keyPrefix       key的前缀
+     * @param ids             id集合
+     * @param type            需要返回对象的Class类型
+     * @param batchDbFallback 根据id集合批量查询数据库的函数，返回id到对象的映射
+     * @param time            过期时间
+     * @param timeUnit        时间单位
+     * @param <R>             需要返回的对象类型的泛型
+     * @param <ID>            id的泛型
+     * @return id到对象的映射，按ids的顺序排列，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix,
+                                         Collection<ID> ids,
+                                         Class<R> type,
+                                         Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+                                         Long time,
+                                         TimeUnit timeUnit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        //1、先查本地缓存，收集未命中的id（去重），布隆过滤器判断一定不存在的id直接跳过
+        List<ID> redisMissIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_BLOOM_REJECT);
+                continue;
+            }
+            R local = getLocal(keyPrefix + id, type);
+            if (local != null) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_LOCAL_HIT);
+                result.put(id, local);
+            } else {
+                redisMissIds.add(id);
+            }
+        }
+        if (redisMissIds.isEmpty()) {
+            return result;
+        }
+
+        //2、一次MGET查询redis
+        List<String> keys = redisMissIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<byte[]> raws = byteRedisTemplate.opsForValue().multiGet(keys);
+        List<ID> dbMissIds = new ArrayList<>();
+        for (int i = 0; i < redisMissIds.size(); i++) {
+            ID id = redisMissIds.get(i);
+            byte[] raw = raws == null ? null : raws.get(i);
+            //空值说明数据库中也不存在，直接跳过
+            if (raw != null && raw.length == 0) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_NULL_HIT);
+                continue;
+            }
+            R r = raw == null ? null : cacheCodecs.decode(raw, type);
+            if (r != null) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_HIT);
+                //存在，写入本地缓存
+                putLocal(keys.get(i), r);
+                result.put(id, r);
+            } else {
+                //redis中不存在或无法解码，需要查询数据库
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
+                dbMissIds.add(id);
+            }
+        }
+        if (dbMissIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+
+        //3、查询数据库之前读取版本号，然后将未命中的id合并为一次数据库查询
+        List<String> dbMissKeys = dbMissIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> versions = stringRedisTemplate.opsForValue().multiGet(
+                dbMissKeys.stream().map(key -> CACHE_VERSION_KEY + key).collect(Collectors.toList()));
+        Map<ID, R> dbResult = cacheMetrics.timeDbFallback(keyPrefix, batchDbFallback).apply(dbMissIds);
+        Map<ID, R> found = dbResult == null ? Collections.emptyMap() : dbResult;
+
+        //4、使用管道批量执行带版本校验的写回，数据库中不存在的id写入空值
+        byte[] script = CACHE_SET_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        byte[] nullTtl = String.valueOf(CACHE_NULL_TIME_UNIT.toMillis(CACHE_NULL_TTL)).getBytes(StandardCharsets.UTF_8);
+        byte[] ttl = String.valueOf(timeUnit.toMillis(time)).getBytes(StandardCharsets.UTF_8);
+        List<Object> written = byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < dbMissIds.size(); i++) {
+                R r = found.get(dbMissIds.get(i));
+                String key = dbMissKeys.get(i);
+                String version = versions == null || versions.get(i) == null ? "0" : versions.get(i);
+                connection.eval(script, ReturnType.INTEGER, 2,
+                        key.getBytes(StandardCharsets.UTF_8),
+                        (CACHE_VERSION_KEY + key).getBytes(StandardCharsets.UTF_8),
+                        version.getBytes(StandardCharsets.UTF_8),
+                        r == null ? NULL_VALUE : cacheCodecs.encode(r),
+                        r == null ? nullTtl : ttl);
+            }
+            return null;
+        });
+        for (int i = 0; i < dbMissIds.size(); i++) {
+            R r = found.get(dbMissIds.get(i));
+            if (r != null) {
+                //写回被拒绝时数据可能已过时，不写入本地缓存
+                if (Long.valueOf(1L).equals(written.get(i))) {
+                    putLocal(dbMissKeys.get(i), r);
+                }
+                result.put(dbMissIds.get(i), r);
+            }
+        }
+        return sortByIds(ids, result);
+    }
+
+    /**
+     * 以hash形式缓存实体，只读取需要的字段（HMGET），适用于列表页等只展示部分字段的场景
+     * 未命中时查询数据库，将实体的全部字段写入hash，数据库中不存在时写入空值标记
+     *
+     * @param keyPrefix  key的前缀
+     * @param id         id
+     * @param type       需要返回对象的Class类型
+     * @param dbFallback 根据id查询数据库
+     * @param time       过期时间
+     * @param timeUnit   时间单位
+     * @param fields     需要读取的字段，为空时读取全部字段
+     * @param <R>        需要返回的对象类型的泛型
+     * @param <ID>       id的泛型
+     * @return 至少填充了fields的对象，数据库中不存在时返回null
+     */
+    public <R, ID> R queryHash(String keyPrefix,
+                               ID id,
+                               Class<R> type,
+                               Function<ID, R> dbFallback,
+                               Long time,
+                               TimeUnit timeUnit,
+                               String... fields) {
+        //0、布隆过滤器判断id一定不存在时直接返回，不访问redis与数据库
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_BLOOM_REJECT);
+            return null;
+        }
+        //1、HMGET读取标记字段与需要的字段
+        String key = keyPrefix + id;
+        List<String> readFields = hashFieldsToRead(type, fields);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, new ArrayList<>(readFields));
+        Object marker = values.get(0);
+        //2、命中，只填充读取的字段
+        if (HashCacheCodec.MARKER_PRESENT.equals(marker)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_HIT);
+            return hashCodec.fromHash(readFields, values, type);
+        }
+        //3、空值
+        if (HashCacheCodec.MARKER_NULL.equals(marker)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_NULL_HIT);
+            return null;
+        }
+        //4、未命中，查询数据库并写入全部字段，同一节点上并发的未命中请求合并为一次查询
+        cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
+        Function<ID, R> timedDbFallback = cacheMetrics.timeDbFallback(keyPrefix, dbFallback);
+        return singleFlight.execute(key, () -> {
+            String version = currentVersion(key);
+            R r = timedDbFallback.apply(id);
+            stringRedisTemplate.execute(CACHE_HASH_SET_SCRIPT, Arrays.asList(key, CACHE_VERSION_KEY + key),
+                    hashSetArgs(r, version, timeUnit.toMillis(time)).toArray());
+            return r;
+        });
+    }
+
+    /**
+     * 批量以hash形式查询实体的部分字段，使用管道一次发送所有HMGET，
+     * 未命中的id合并为一次数据库查询，再用管道批量写回
+     *
+     * @param keyPrefix       key的前缀
+     * @param ids             id集合
+     * @param type            需要返回对象的Class类型
+     * @param batchDbFallback 根据id集合批量查询数据库的函数，返回id到对象的映射
+     * @param time            过期时间
+     * @param timeUnit        时间单位
+     * @param fields          需要读取的字段，为空时读取全部字段
+     * @param <R>             需要返回的对象类型的泛型
+     * @param <ID>            id的泛型
+     * @return id到对象的映射，按ids的顺序排列，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryHashBatch(String keyPrefix,
+                                             Collection<ID> ids,
+                                             Class<R> type,
+                                             Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+                                             Long time,
+                                             TimeUnit timeUnit,
+                                             String... fields) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        //1、布隆过滤器判断一定不存在的id直接跳过
+        List<ID> queryIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                queryIds.add(id);
+            } else {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_BLOOM_REJECT);
+            }
+        }
+        if (queryIds.isEmpty()) {
+            return result;
+        }
+
+        //2、使用管道发送所有HMGET
+        List<String> readFields = hashFieldsToRead(type, fields);
+        byte[][] rawFields = readFields.stream().map(f -> f.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        List<Object> rows = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : queryIds) {
+                connection.hMGet((keyPrefix + id).getBytes(StandardCharsets.UTF_8), rawFields);
+            }
+            return null;
+        });
+        List<ID> dbMissIds = new ArrayList<>();
+        for (int i = 0; i < queryIds.size(); i++) {
+            List<?> values = (List<?>) rows.get(i);
+            Object marker = values.get(0);
+            if (HashCacheCodec.MARKER_PRESENT.equals(marker)) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_HIT);
+                result.put(queryIds.get(i), hashCodec.fromHash(readFields, values, type));
+            } else if (HashCacheCodec.MARKER_NULL.equals(marker)) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_NULL_HIT);
+            } else {
+                cacheMetrics.request(keyPrefix, CacheMetrics.RESULT_MISS);
+                dbMissIds.add(queryIds.get(i));
+            }
+        }
+        if (dbMissIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+
+        //3、查询数据库之前读取版本号，然后将未命中的id合并为一次数据库查询
+        List<String> dbMissKeys = dbMissIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> versions = stringRedisTemplate.opsForValue().multiGet(
+                dbMissKeys.stream().map(key -> CACHE_VERSION_KEY + key).collect(Collectors.toList()));
+        Map<ID, R> dbResult = cacheMetrics.timeDbFallback(keyPrefix, batchDbFallback).apply(dbMissIds);
+        Map<ID, R> found = dbResult == null ? Collections.emptyMap() : dbResult;
+
+        //4、使用管道批量执行带版本校验的写回，数据库中不存在的id写入空值标记
+        byte[] script = CACHE_HASH_SET_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < dbMissIds.size(); i++) {
+                String key = dbMissKeys.get(i);
+                String version = versions == null || versions.get(i) == null ? "0" : versions.get(i);
+                List<String> args = hashSetArgs(found.get(dbMissIds.get(i)), version, timeUnit.toMillis(time));
+                byte[][] keysAndArgs = new byte[args.size() + 2][];
+                keysAndArgs[0] = key.getBytes(StandardCharsets.UTF_8);
+                keysAndArgs[1] = (CACHE_VERSION_KEY + key).getBytes(StandardCharsets.UTF_8);
+                for (int j = 0; j < args.size(); j++) {
+                    keysAndArgs[j + 2] = args.get(j).getBytes(StandardCharsets.UTF_8);
+                }
+                connection.eval(script, ReturnType.INTEGER, 2, keysAndArgs);
+            }
+            return null;
+        });
+        for (ID id : dbMissIds) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return sortByIds(ids, result);
+    }
+
+    /**
+     * 原地增加hash缓存中的计数字段（HINCRBY），缓存不存在时递增版本号，由下次读取从数据库重建
+     * 需要在数据库更新之后调用
+     *
+     * @param key   String类型的Key
+     * @param field 字段名
+     * @param delta 增量
+     * @return 是否原地更新成功
+     */
+    public boolean incrementHashField(String key, String field, long delta) {
+        return updateHashField(key, "incr", field, String.valueOf(delta));
+    }
+
+    /**
+     * 原地修改hash缓存中的单个字段（HSET），缓存不存在时递增版本号，由下次读取从数据库重建
+     * 需要在数据库更新之后调用
+     *
+     * @param key   String类型的Key
+     * @param field 字段名
+     * @param value 新值
+     * @return 是否原地更新成功
+     */
+    public boolean setHashField(String key, String field, Object value) {
+        return updateHashField(key, "set", field, hashCodec.encode(value));
+    }
+
+    private boolean updateHashField(String key, String operation, String field, String value) {
+        Long result = stringRedisTemplate.execute(CACHE_HASH_UPDATE_SCRIPT, Arrays.asList(key, CACHE_VERSION_KEY + key),
+                operation, field, value, String.valueOf(TimeUnit.HOURS.toMillis(CACHE_VERSION_TTL)));
+        return Long.valueOf(1L).equals(result);
+    }
+
+    /**
+     * 标记字段放在第一位，fields为空时读取该类型的全部字段
+     */
+    private List<String> hashFieldsToRead(Class<?> type, String[] fields) {
+        List<String> readFields = new ArrayList<>();
+        readFields.add(HashCacheCodec.MARKER_FIELD);
+        readFields.addAll(fields.length == 0 ? hashCodec.fieldNames(type) : Arrays.asList(fields));
+        return readFields;
+    }
+
+    /**
+     * cache_hash_set.lua的参数：版本号、过期时间、依次排列的field与value
+     */
+    private List<String> hashSetArgs(Object value, String version, long ttlMillis) {
+        List<String> args = new ArrayList<>();
+        args.add(version);
+        if (value == null) {
+            args.add(String.valueOf(CACHE_NULL_TIME_UNIT.toMillis(CACHE_NULL_TTL)));
+            args.add(HashCacheCodec.MARKER_FIELD);
+            args.add(HashCacheCodec.MARKER_NULL);
+            return args;
+        }
+        args.add(String.valueOf(ttlMillis));
+        hashCodec.toHash(value).forEach((field, fieldValue) -> {
+            args.add(field);
+            args.add(fieldValue);
+        });
+        return args;
+    }
+
+    /**
+     * 写入空值，避免缓存穿透
+     */
+    private void setNullValue(String key, String version) {
+        setIfVersionMatches(key, null, NULL_VALUE, version, CACHE_NULL_TIME_UNIT.toMillis(CACHE_NULL_TTL));
+    }
+
+    /**
+     * 读取key当前的版本号，必须在查询数据库之前调用
+     *
+     * @param key String类型的Key
+     * @return 版本号，从未失效过的key为"0"
+     */
+    private String currentVersion(String key) {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_VERSION_KEY + key);
+        return version == null ? "0" : version;
+    }
+
+    /**
+     * 版本号与查询数据库之前读到的一致时写入缓存，并写入本地缓存
+     *
+     * @param key       String类型的Key
+     * @param local     写入本地缓存的对象，为null时不写入
+     * @param value     编码后的缓存值
+     * @param version   查询数据库之前读到的版本号
+     * @param ttlMillis 过期时间（单位毫秒），0代表不过期
+     * @return 是否写入成功
+     */
+    private boolean setIfVersionMatches(String key, Object local, byte[] value, String version, long ttlMillis) {
+        Long result = byteRedisTemplate.execute(CACHE_SET_SCRIPT, Arrays.asList(key, CACHE_VERSION_KEY + key),
+                version.getBytes(StandardCharsets.UTF_8), value,
+                String.valueOf(ttlMillis).getBytes(StandardCharsets.UTF_8));
+        boolean success = Long.valueOf(1L).equals(result);
+        if (success) {
+            putLocal(key, local);
+        }
+        return success;
+    }
+
+    private static boolean isNotEmpty(byte[] raw) {
+        return raw != null && raw.length > 0;
+    }
+
+    /**
+     * 按照ids的顺序重新排列结果
+     */
+    private <R, ID> Map<ID, R> sortByIds(Collection<ID> ids, Map<ID, R> result) {
+        Map<ID, R> sorted = new LinkedHashMap<>(result.size());
+        for (ID id : ids) {
+            R r = result.get(id);
+            if (r != null) {
+                sorted.put(id, r);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * 从本地缓存（一级缓存或热点副本）中获取指定类型的对象，未启用本地缓存、未命中或类型不匹配时返回null
+     *
+     * @param key  String类型的Key
+     * @param type 需要返回对象的Class类型
+     * @param <R>  需要返回的对象类型的泛型
+     * @return 本地缓存中的对象
+     */
+    private <R> R getLocal(String key, Class<R> type) {
+        //记录访问，用于热点key探测
+        hotKeyDetector.record(key);
+        //不刷新最后访问时间，保证条目在写入ttl后一定过期，而不是变成空闲过期
+        Object value = localCache == null ? null : localCache.get(key, false);
+        if (value == null && hotReplica != null) {
+            value = hotReplica.get(key, false);
+        }
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    /**
+     * 将反序列化好的对象写入本地缓存，空值不写入
+     *
+     * @param key   String类型的Key
+     * @param value 任意类型的对象
+     */
+    private void putLocal(String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (localCache != null) {
+            localCache.put(key, value);
+        }
+        //热点key额外复制到短TTL的本地副本
+        if (hotReplica != null && hotKeyDetector.isHot(key)) {
+            hotReplica.put(key, value);
+        }
+    }
+
+    /**
+     * 清除本地缓存与热点副本中的条目
+     *
+     * @param key String类型的Key
+     */
+    private void evictLocal(String key) {
+        if (localCache != null) {
+            localCache.remove(key);
+        }
+        if (hotReplica != null) {
+            hotReplica.remove(key);
+        }
+    }
+
     /**
      * 获取互斥锁，利用 setnx设置互斥锁，并设置锁的过期时间
      *
@@ -279,5 +1296,7 @@ public class CacheClient {
      */
     public void unlock(String key) {
         stringRedisTemplate.delete(key);
+        //通知等待该锁的线程
+        lockReleaseNotifier.notifyReleased(key);
     }
 }
\ No newline at end of file
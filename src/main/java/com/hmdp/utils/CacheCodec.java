@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码器
+ * 编码结果直接写入redis的string类型的value中，读取时通过canDecode识别数据格式，
+ * 因此不同编解码器写入的数据可以共存，滚动发布期间新旧格式都能被读取
+ */
+public interface CacheCodec {
+
+    /**
+     * 判断字节数据是否为当前编解码器写入的格式
+     *
+     * @param bytes redis中的原始数据，非空
+     * @return true代表可以由当前编解码器解码
+     */
+    boolean canDecode(byte[] bytes);
+
+    /**
+     * 判断指定类型的对象能否由当前编解码器编码
+     *
+     * @param type 对象的Class类型
+     * @return true代表可以编码
+     */
+    boolean canEncode(Class<?> type);
+
+    /**
+     * 编码任意Java对象
+     *
+     * @param value 任意类型的对象，非空
+     * @return 编码后的字节数据
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码为指定类型的对象
+     *
+     * @param bytes redis中的原始数据
+     * @param type  需要返回的对象的Class类型
+     * @param <R>   需要返回的对象类型的泛型
+     * @return 解码后的对象，数据与当前类型结构不兼容时返回null
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 编码带逻辑过期时间的数据
+     *
+     * @param redisData 封装了逻辑过期时间的数据
+     * @return 编码后的字节数据
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码带逻辑过期时间的数据，返回的RedisData中的data已经是指定类型的对象
+     *
+     * @param bytes redis中的原始数据
+     * @param type  data的Class类型
+     * @return 解码后的数据，数据与当前类型结构不兼容时返回null
+     */
+    RedisData decodeLogical(byte[] bytes, Class<?> type);
+}
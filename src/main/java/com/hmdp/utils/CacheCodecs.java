@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 缓存编解码器的注册中心
+ * 写入时使用配置的编解码器（hmdp.cache.codec），该编解码器不支持的类型退化为json；
+ * 读取时根据数据头部识别格式，因此json与二进制格式的数据可以同时存在；
+ * 编码后达到阈值的数据会被压缩，读取时根据头部识别并先解压缩
+ */
+@Component
+public class CacheCodecs {
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+
+    //读取时按顺序尝试，json作为兜底放在最后
+    private final List<CacheCodec> readers;
+
+    //写入时使用的编解码器
+    private final CacheCodec writer;
+
+    //大数据压缩
+    private final CacheCompressor compressor;
+
+    public CacheCodecs(CacheProperties cacheProperties) {
+        CacheCodec binaryCodec = new BinaryCacheCodec();
+        this.readers = Arrays.asList(binaryCodec, jsonCodec);
+        this.writer = "binary".equalsIgnoreCase(cacheProperties.getCodec()) ? binaryCodec : jsonCodec;
+        CacheProperties.Compression compression = cacheProperties.getCompression();
+        this.compressor = new CacheCompressor(compression.isEnabled() ? compression.getThresholdBytes() : 0,
+                compression.getMaxInflatedBytes());
+    }
+
+    public byte[] encode(Object value) {
+        return compressor.compress(writerFor(value).encode(value));
+    }
+
+    public byte[] encodeLogical(RedisData redisData) {
+        return compressor.compress(writerFor(redisData.getData()).encodeLogical(redisData));
+    }
+
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        byte[] raw = uncompressed(bytes);
+        return raw == null ? null : readerFor(raw).decode(raw, type);
+    }
+
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        byte[] raw = uncompressed(bytes);
+        return raw == null ? null : readerFor(raw).decodeLogical(raw, type);
+    }
+
+    /**
+     * 压缩过的数据先解压缩，即使当前节点关闭了压缩也能读取，数据损坏时返回null
+     */
+    private byte[] uncompressed(byte[] bytes) {
+        return compressor.isCompressed(bytes) ? compressor.decompress(bytes) : bytes;
+    }
+
+    private CacheCodec writerFor(Object value) {
+        return value != null && writer.canEncode(value.getClass()) ? writer : jsonCodec;
+    }
+
+    private CacheCodec readerFor(byte[] bytes) {
+        for (CacheCodec reader : readers) {
+            if (reader.canDecode(bytes)) {
+                return reader;
+            }
+        }
+        return jsonCodec;
+    }
+}
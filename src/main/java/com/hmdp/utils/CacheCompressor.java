@@ -0,0 +1,118 @@
+package com.hmdp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值压缩
+ * 编码后的数据达到阈值时使用Deflate（最快档位）压缩，压缩后的数据格式为：
+ * 头部0xFD + 原始长度（varint） + 压缩数据；
+ * 小于阈值或压缩后没有变小的数据保持原样，json以ASCII字符开头，二进制格式以0xFE开头，都不会与0xFD冲突
+ */
+public class CacheCompressor {
+
+    //压缩格式的头部
+    public static final byte MAGIC = (byte) 0xFD;
+
+    //Deflater与Inflater持有本地内存，每个线程复用一个
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    //达到该字节数才压缩，0代表不压缩
+    private final int threshold;
+
+    //解压缩后允许的最大字节数，头部记录的原始长度超过该值时视为数据损坏，不分配内存
+    private final int maxInflatedBytes;
+
+    public CacheCompressor(int threshold, int maxInflatedBytes) {
+        this.threshold = threshold;
+        this.maxInflatedBytes = maxInflatedBytes;
+    }
+
+    public boolean isCompressed(byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == MAGIC;
+    }
+
+    /**
+     * 达到阈值时压缩，压缩后没有变小则返回原数据
+     */
+    public byte[] compress(byte[] bytes) {
+        if (threshold <= 0 || bytes.length < threshold) {
+            return bytes;
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 8);
+        out.write(MAGIC);
+        writeVarInt(out, bytes.length);
+        byte[] buffer = new byte[Math.min(bytes.length, 8192)];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+            if (out.size() >= bytes.length) {
+                return bytes;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 解压缩，数据损坏、原始长度超过上限或解压后的长度与头部记录的不一致时返回null
+     */
+    public byte[] decompress(byte[] bytes) {
+        //1、读取原始长度，varint最多5个字节
+        long length = 0;
+        int shift = 0;
+        int index = 1;
+        boolean complete = false;
+        while (index < bytes.length && shift <= 28) {
+            byte b = bytes[index++];
+            length |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                complete = true;
+                break;
+            }
+            shift += 7;
+        }
+        //2、分配内存之前检查长度，损坏或伪造的头部不会导致分配超大的数组
+        if (!complete || length > maxInflatedBytes) {
+            return null;
+        }
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(bytes, index, bytes.length - index);
+        byte[] result = new byte[(int) length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int read = inflater.inflate(result, n, result.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != length) {
+                return null;
+            }
+            //3、确认压缩数据恰好解压出length个字节，没有多余的数据
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished())) {
+                return null;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 由行变更事件驱动的缓存失效
+ * 按表名映射到缓存key前缀，变更的key先收集起来，达到批量大小或到达刷新间隔时一次性删除，
+ * 直接执行的SQL、管理后台的修改同样会使缓存失效，不再依赖每个写入路径都记得删除缓存
+ */
+@Slf4j
+@Component
+public class CacheInvalidationPipeline {
+
+    private final CacheClient cacheClient;
+    private final BloomFilterRegistry bloomFilterRegistry;
+    private final CacheProperties.Cdc properties;
+
+    //待删除的key
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    public CacheInvalidationPipeline(CacheClient cacheClient,
+                                     BloomFilterRegistry bloomFilterRegistry,
+                                     CacheProperties cacheProperties) {
+        this.cacheClient = cacheClient;
+        this.bloomFilterRegistry = bloomFilterRegistry;
+        this.properties = cacheProperties.getCdc();
+    }
+
+    /**
+     * 处理一个行变更事件
+     *
+     * @param event 行变更事件
+     */
+    public void accept(RowChangeEvent event) {
+        Map<String, List<String>> tables = properties.getTables();
+        List<String> keyPrefixes = event.getTable() == null ? null : tables.get(event.getTable());
+        if (keyPrefixes == null || event.getId() == null) {
+            return;
+        }
+        for (String keyPrefix : keyPrefixes) {
+            if (RowChangeEvent.INSERT.equals(event.getType())) {
+                //新增的数据写入布隆过滤器，之前缓存的空值也需要删除
+                bloomFilterRegistry.add(keyPrefix, event.getId());
+            }
+            pendingKeys.add(keyPrefix + event.getId());
+        }
+        if (pendingKeys.size() >= properties.getBatchSize()) {
+            flush();
+        }
+    }
+
+    /**
+     * 批量删除收集到的key
+     *
+     * @return 删除的key的数量
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.cdc.flush-interval-millis:200}")
+    public int flush() {
+        if (pendingKeys.isEmpty()) {
+            return 0;
+        }
+        List<String> keys = new ArrayList<>(pendingKeys);
+        //逐个移除，刷新期间新加入的key留到下一批
+        keys.forEach(pendingKeys::remove);
+        try {
+            cacheClient.deleteBatch(keys);
+        } catch (Exception e) {
+            //删除失败时放回，下次重试
+            pendingKeys.addAll(keys);
+            log.error("批量删除缓存失败，{}个key等待重试", keys.size(), e);
+            return 0;
+        }
+        return keys.size();
+    }
+
+    /**
+     * 回放记录的变更事件，每行一个json，如 {"table":"tb_shop","type":"update","id":1}
+     * 用于在没有binlog的环境中验证表与key前缀的映射，或手动修复缓存
+     *
+     * @param reader 事件记录
+     * @return 回放的事件数量
+     */
+    public int replay(BufferedReader reader) throws IOException {
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (StrUtil.isBlank(line)) {
+                continue;
+            }
+            accept(JSONUtil.toBean(line, RowChangeEvent.class));
+            count++;
+        }
+        flush();
+        return count;
+    }
+}
@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 缓存指标，所有指标按key前缀（如cache:shop:）打标签，通过Actuator的metrics端点查看
+ * <ul>
+ *     <li>cache.requests：按result标签区分local_hit、hit、null_hit、miss、bloom_reject，用于计算命中率</li>
+ *     <li>cache.db.fallback：数据库回源耗时，带直方图</li>
+ *     <li>cache.lock.failures：获取重建锁失败次数</li>
+ *     <li>cache.lock.spins：等待锁释放的轮询次数</li>
+ *     <li>cache.rebuild.queue.depth：异步重建任务队列长度</li>
+ *     <li>cache.rebuild.latency：异步重建任务的排队与执行耗时</li>
+ *     <li>cache.rebuild.rejected：因重复或队列已满未执行的重建任务数</li>
+ * </ul>
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String RESULT_LOCAL_HIT = "local_hit";
+    public static final String RESULT_HIT = "hit";
+    public static final String RESULT_NULL_HIT = "null_hit";
+    public static final String RESULT_MISS = "miss";
+    public static final String RESULT_BLOOM_REJECT = "bloom_reject";
+
+    private final MeterRegistry meterRegistry;
+
+    //Micrometer的builder每次注册都要查找meter，热路径上按名称与标签缓存已创建的meter
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 记录一次缓存查询的结果
+     *
+     * @param keyPrefix key的前缀
+     * @param result    查询结果，取值为RESULT_*常量
+     */
+    public void request(String keyPrefix, String result) {
+        counters.computeIfAbsent("cache.requests|" + keyPrefix + "|" + result,
+                k -> Counter.builder("cache.requests")
+                        .description("缓存查询次数")
+                        .tag("prefix", keyPrefix)
+                        .tag("result", result)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录一次获取重建锁失败
+     */
+    public void lockFailure(String keyPrefix) {
+        counter("cache.lock.failures", "获取重建锁失败次数", keyPrefix).increment();
+    }
+
+    /**
+     * 记录一次等待锁释放的轮询
+     */
+    public void lockSpin(String keyPrefix) {
+        counter("cache.lock.spins", "等待锁释放的轮询次数", keyPrefix).increment();
+    }
+
+    /**
+     * 包装数据库回源函数，记录每次回源的耗时
+     *
+     * @param keyPrefix  key的前缀
+     * @param dbFallback 数据库查询函数
+     * @return 记录耗时的数据库查询函数
+     */
+    public <T, R> Function<T, R> timeDbFallback(String keyPrefix, Function<T, R> dbFallback) {
+        Timer timer = timers.computeIfAbsent("cache.db.fallback|" + keyPrefix,
+                k -> Timer.builder("cache.db.fallback")
+                        .description("数据库回源耗时")
+                        .tag("prefix", keyPrefix)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+        return t -> {
+            long begin = System.nanoTime();
+            try {
+                return dbFallback.apply(t);
+            } finally {
+                timer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    /**
+     * 注册异步重建任务队列长度
+     *
+     * @param executor 执行器的名称
+     * @param depth    返回当前队列长度的函数
+     */
+    public void registerQueueDepth(String executor, Supplier<Number> depth) {
+        Gauge.builder("cache.rebuild.queue.depth", depth)
+                .description("异步重建任务队列长度")
+                .tag("executor", executor)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录异步重建任务的耗时
+     *
+     * @param stage 阶段，wait为排队耗时，execute为执行耗时
+     * @param nanos 耗时（单位纳秒）
+     */
+    public void rebuildLatency(String stage, long nanos) {
+        timers.computeIfAbsent("cache.rebuild.latency|" + stage,
+                k -> Timer.builder("cache.rebuild.latency")
+                        .description("异步重建任务耗时")
+                        .tag("stage", stage)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次未执行的重建任务
+     *
+     * @param reason 原因，duplicate为同一key已有任务，queue_full为队列已满
+     */
+    public void rebuildRejected(String reason) {
+        counters.computeIfAbsent("cache.rebuild.rejected|" + reason,
+                k -> Counter.builder("cache.rebuild.rejected")
+                        .description("未执行的重建任务数")
+                        .tag("reason", reason)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    private Counter counter(String name, String description, String keyPrefix) {
+        return counters.computeIfAbsent(name + "|" + keyPrefix,
+                k -> Counter.builder(name)
+                        .description(description)
+                        .tag("prefix", keyPrefix)
+                        .register(meterRegistry));
+    }
+}
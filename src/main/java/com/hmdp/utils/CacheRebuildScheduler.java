@@ -0,0 +1,135 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存重建调度器，所有服务共享同一个重建线程池
+ * <ul>
+ *     <li>按key去重：同一个key已有重建任务在排队或执行时，不再重复提交</li>
+ *     <li>有界队列：排队任务数达到上限后，按配置丢弃或由调用线程执行</li>
+ *     <li>按访问频率排序：访问越频繁的key越先重建</li>
+ *     <li>随Spring容器关闭，等待已提交的任务执行完成</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private static final String REJECT_POLICY_CALLER_RUNS = "caller-runs";
+
+    private final CacheProperties.Rebuild properties;
+    private final HotKeyDetector hotKeyDetector;
+    private final CacheMetrics cacheMetrics;
+    private final ThreadPoolExecutor executor;
+
+    //正在排队或执行的key
+    private final ConcurrentHashMap<String, Boolean> pendingKeys = new ConcurrentHashMap<>();
+    //提交顺序，频率相同时先提交的先执行
+    private final AtomicLong sequence = new AtomicLong();
+
+    public CacheRebuildScheduler(CacheProperties cacheProperties,
+                                 HotKeyDetector hotKeyDetector,
+                                 CacheMetrics cacheMetrics) {
+        this.properties = cacheProperties.getRebuild();
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        //优先级队列本身是无界的，容量由submit控制；任务直接通过execute入队，保证队列中的元素都是RebuildTask
+        this.executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                new NamedThreadFactory("cache-rebuild-", false));
+        cacheMetrics.registerQueueDepth("cacheRebuildScheduler", () -> executor.getQueue().size());
+    }
+
+    /**
+     * 提交重建任务
+     * 返回false时任务不会执行（同一key已有任务，或队列已满被丢弃），调用方需要自行释放重建锁
+     *
+     * @param key  缓存的key，用于去重与计算优先级
+     * @param task 重建任务
+     * @return 任务是否已被接受（已入队或已由调用线程执行）
+     */
+    public boolean submit(String key, Runnable task) {
+        if (pendingKeys.putIfAbsent(key, Boolean.TRUE) != null) {
+            cacheMetrics.rebuildRejected("duplicate");
+            return false;
+        }
+        RebuildTask rebuildTask = new RebuildTask(key, task, hotKeyDetector.frequency(key), sequence.getAndIncrement());
+        //并发提交时队列长度可能略微超过上限，不需要精确
+        if (executor.getQueue().size() >= properties.getQueueCapacity() || executor.isShutdown()) {
+            if (REJECT_POLICY_CALLER_RUNS.equals(properties.getRejectPolicy()) && !executor.isShutdown()) {
+                rebuildTask.run();
+                return true;
+            }
+            pendingKeys.remove(key);
+            cacheMetrics.rebuildRejected("queue_full");
+            return false;
+        }
+        executor.execute(rebuildTask);
+        return true;
+    }
+
+    /**
+     * 关闭线程池，等待已提交的任务执行完成
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(properties.getShutdownTimeoutSeconds(), TimeUnit.SECONDS)) {
+                log.warn("缓存重建任务未在{}秒内执行完成，剩余{}个任务被放弃",
+                        properties.getShutdownTimeoutSeconds(), executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 重建任务，按访问频率从高到低、提交顺序从先到后排序
+     */
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final Runnable task;
+        private final long frequency;
+        private final long seq;
+        private final long submitTime = System.nanoTime();
+
+        RebuildTask(String key, Runnable task, long frequency, long seq) {
+            this.key = key;
+            this.task = task;
+            this.frequency = frequency;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            cacheMetrics.rebuildLatency("wait", begin - submitTime);
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("缓存重建异常，key：{}", key, e);
+            } finally {
+                pendingKeys.remove(key);
+                cacheMetrics.rebuildLatency("execute", System.nanoTime() - begin);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask other) {
+            int result = Long.compare(other.frequency, frequency);
+            return result != 0 ? result : Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * 回放记录的行变更事件的管理端点，只在管理端口上暴露，默认关闭
+ * 开启：management.endpoint.cdcreplay.enabled=true，
+ * 调用：POST /actuator/cdcreplay {"events":"{\"table\":\"tb_shop\",\"type\":\"update\",\"id\":1}"}
+ */
+@Component
+@Endpoint(id = "cdcreplay", enableByDefault = false)
+public class CdcReplayEndpoint {
+
+    private final CacheInvalidationPipeline cacheInvalidationPipeline;
+
+    public CdcReplayEndpoint(CacheInvalidationPipeline cacheInvalidationPipeline) {
+        this.cacheInvalidationPipeline = cacheInvalidationPipeline;
+    }
+
+    /**
+     * 回放行变更事件，删除对应的缓存
+     *
+     * @param events 每行一个json，如 {"table":"tb_shop","type":"update","id":1}
+     * @return 回放的事件数量
+     */
+    @WriteOperation
+    public int replay(String events) throws IOException {
+        return cacheInvalidationPipeline.replay(new BufferedReader(new StringReader(events)));
+    }
+}
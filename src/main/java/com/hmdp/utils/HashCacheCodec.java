@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.convert.Convert;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实体与redis hash之间的转换，每个非空字段保存为一个hash field
+ * 字段值使用紧凑的字符串形式：数值与布尔值直接保存、时间保存为毫秒时间戳、字符串原样保存，
+ * 因此单个计数字段可以直接HINCRBY；另外保存一个标记字段，区分正常数据、空值与不存在的key
+ */
+public class HashCacheCodec {
+
+    //标记字段，正常数据为"1"，数据库中不存在的数据为"0"，HMGET读到null说明key不存在
+    public static final String MARKER_FIELD = "@";
+    public static final String MARKER_PRESENT = "1";
+    public static final String MARKER_NULL = "0";
+
+    //每个类型的字段，只解析一次
+    private final ConcurrentHashMap<Class<?>, Map<String, Field>> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * 将对象转换为hash，值为null的字段不保存
+     */
+    public Map<String, String> toHash(Object value) {
+        Map<String, String> hash = new LinkedHashMap<>();
+        hash.put(MARKER_FIELD, MARKER_PRESENT);
+        try {
+            for (Map.Entry<String, Field> entry : schemaOf(value.getClass()).entrySet()) {
+                Object fieldValue = entry.getValue().get(value);
+                if (fieldValue != null) {
+                    hash.put(entry.getKey(), encode(fieldValue));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return hash;
+    }
+
+    /**
+     * 将HMGET的结果转换为对象，只填充读取的字段
+     *
+     * @param fields 读取的字段，与values一一对应
+     * @param values 字段值
+     * @param type   对象类型
+     */
+    public <R> R fromHash(List<String> fields, List<?> values, Class<R> type) {
+        Map<String, Field> schema = schemaOf(type);
+        try {
+            Constructor<R> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            R r = constructor.newInstance();
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = schema.get(fields.get(i));
+                Object value = values.get(i);
+                if (field != null && value != null) {
+                    field.set(r, decode(value.toString(), field.getType()));
+                }
+            }
+            return r;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 将字段值转换为保存在hash中的字符串
+     */
+    public String encode(Object value) {
+        if (value instanceof LocalDateTime) {
+            return String.valueOf(((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return 该类型可以保存到hash中的字段名
+     */
+    public Set<String> fieldNames(Class<?> type) {
+        return schemaOf(type).keySet();
+    }
+
+    private Object decode(String value, Class<?> type) {
+        if (type == String.class) {
+            return value;
+        }
+        if (type == LocalDateTime.class) {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(value)), ZoneId.systemDefault());
+        }
+        return Convert.convert(type, value);
+    }
+
+    private Map<String, Field> schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, t -> {
+            Map<String, Field> fields = new LinkedHashMap<>();
+            for (Class<?> c = t; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+                            || MARKER_FIELD.equals(field.getName())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    fields.putIfAbsent(field.getName(), field);
+                }
+            }
+            return fields;
+        });
+    }
+}
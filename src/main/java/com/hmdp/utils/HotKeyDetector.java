@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.dto.HotKeyDTO;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+
+/**
+ * 热点key探测
+ * 使用Count-Min Sketch按固定时间窗口统计key的访问次数（内存占用固定，与key的数量无关），
+ * 估算QPS超过阈值的key被识别为热点，由CacheClient复制到本地短TTL副本中，
+ * 热点key的流量因此随应用节点数量水平扩展，而不是集中在一个redis分片上
+ */
+@Component
+public class HotKeyDetector {
+
+    //Count-Min Sketch的行数（哈希函数个数）
+    private static final int DEPTH = 4;
+
+    private final CacheProperties.HotKey properties;
+    //Count-Min Sketch的列数，2的幂
+    private final int width;
+    //当前窗口的计数
+    private volatile AtomicIntegerArray sketch;
+    //当前的热点key
+    private final ConcurrentHashMap<String, HotKeyDTO> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(CacheProperties cacheProperties) {
+        this.properties = cacheProperties.getHotKey();
+        this.width = Integer.highestOneBit(Math.max(64, properties.getSketchWidth()));
+        this.sketch = new AtomicIntegerArray(DEPTH * width);
+    }
+
+    /**
+     * 记录一次访问，按采样率抽样计数，估算值超过阈值时识别为热点
+     *
+     * @param key 缓存的key
+     */
+    public void record(String key) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        int sampleRate = Math.max(1, properties.getSampleRate());
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        AtomicIntegerArray current = sketch;
+        long hash = MurmurHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * width + ((h1 + i * h2) & (width - 1));
+            min = Math.min(min, current.incrementAndGet(index));
+        }
+        long qps = estimateQps(min);
+        if (qps >= properties.getQpsThreshold() && !hotKeys.containsKey(key)
+                && hotKeys.size() < properties.getMaxHotKeys()) {
+            hotKeys.putIfAbsent(key, new HotKeyDTO(key, qps, LocalDateTime.now()));
+        }
+    }
+
+    /**
+     * @return 该key当前是否为热点
+     */
+    public boolean isHot(String key) {
+        return !hotKeys.isEmpty() && hotKeys.containsKey(key);
+    }
+
+    /**
+     * @return 该key在当前统计窗口内估算的QPS，未启用探测时为0
+     */
+    public long frequency(String key) {
+        if (!properties.isEnabled()) {
+            return 0L;
+        }
+        return estimateQps(estimate(sketch, key));
+    }
+
+    /**
+     * @return 当前的热点key，按QPS从高到低排列
+     */
+    public List<HotKeyDTO> hotKeys() {
+        return hotKeys.values().stream()
+                .sorted(Comparator.comparing(HotKeyDTO::getQps).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 按窗口滚动：用即将结束的窗口更新热点的QPS，访问量已低于阈值的热点被降级，然后开始新窗口
+     */
+    @Scheduled(fixedRateString = "${hmdp.cache.hot-key.window-millis:1000}")
+    public void rotate() {
+        AtomicIntegerArray finished = sketch;
+        sketch = new AtomicIntegerArray(DEPTH * width);
+        hotKeys.values().removeIf(hotKey -> {
+            long qps = estimateQps(estimate(finished, hotKey.getKey()));
+            hotKey.setQps(qps);
+            return qps < properties.getQpsThreshold();
+        });
+    }
+
+    private int estimate(AtomicIntegerArray counts, String key) {
+        long hash = MurmurHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counts.get(i * width + ((h1 + i * h2) & (width - 1))));
+        }
+        return min;
+    }
+
+    /**
+     * 将窗口内的抽样计数换算为QPS
+     */
+    private long estimateQps(int sampledCount) {
+        return (long) sampledCount * Math.max(1, properties.getSampleRate()) * 1000L
+                / Math.max(1L, properties.getWindowMillis());
+    }
+}
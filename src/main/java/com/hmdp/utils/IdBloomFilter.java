@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的进程内布隆过滤器，用于判断某个id是否可能存在
+ * 返回false代表一定不存在；返回true代表可能存在（有一定的误判率）
+ */
+public class IdBloomFilter {
+
+    //位数组，使用AtomicLongArray保证并发写入时不会丢失bit
+    private final AtomicLongArray bits;
+    //位数组的长度
+    private final long bitSize;
+    //哈希函数的个数
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp                期望的误判率
+     */
+    public IdBloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1L, expectedInsertions);
+        //m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64L, m);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((bitSize + 63) >>> 6));
+    }
+
+    public void put(Object id) {
+        long hash = MurmurHash.hash64(id.toString());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + (long) i * h2);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    public boolean mightContain(Object id) {
+        long hash = MurmurHash.hash64(id.toString());
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + (long) i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long indexOf(long combinedHash) {
+        //取非负数后对位数组长度取模
+        return (combinedHash & Long.MAX_VALUE) % bitSize;
+    }
+}
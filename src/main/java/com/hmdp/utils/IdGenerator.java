@@ -0,0 +1,16 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id生成器，由 hmdp.id.mode 选择实现：
+ * redis（默认）为 RedisIdWorker，snowflake 为 SnowflakeIdWorker
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成全局唯一id
+     *
+     * @param keyPrefix 业务前缀，不同业务的序列号分开计数；不依赖序列号计数的实现可以忽略
+     * @return 64位id，高位为时间戳，趋势递增
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASE_CHANNEL;
+
+/**
+ * 互斥锁释放通知
+ * 持有锁的线程释放锁后，通过Redis发布订阅广播锁的key，
+ * 所有节点上等待该锁的线程被立即唤醒，而不是按固定间隔休眠轮询
+ */
+@Component
+public class LockReleaseNotifier {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //获取锁失败后的最长等待时间（单位毫秒）
+    private final long maxWaitMillis;
+
+    //正在等待的锁，key为锁的key，同一把锁的所有等待者共享一个latch
+    private final ConcurrentHashMap<String, Waiters> waiters = new ConcurrentHashMap<>();
+
+    public LockReleaseNotifier(StringRedisTemplate stringRedisTemplate,
+                               CacheProperties cacheProperties,
+                               RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.maxWaitMillis = cacheProperties.getLock().getMaxWaitMillis();
+        listenerContainer.addMessageListener(
+                (message, pattern) -> wakeUp(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOCK_RELEASE_CHANNEL));
+    }
+
+    /**
+     * 登记对某把锁的等待，必须在尝试获取锁之前调用，避免错过在两次操作之间发出的释放通知；
+     * 等待结束后（无论是否收到通知）必须调用unwatch
+     *
+     * @param lockKey 锁的key
+     * @return 锁释放时会被触发的latch
+     */
+    public CountDownLatch watch(String lockKey) {
+        return waiters.compute(lockKey, (k, w) -> {
+            Waiters current = w == null ? new Waiters() : w;
+            current.count++;
+            return current;
+        }).latch;
+    }
+
+    /**
+     * 取消登记，最后一个等待者离开时移除latch，等待超时的锁不会一直留在map中
+     *
+     * @param lockKey 锁的key
+     * @param latch   watch返回的latch
+     */
+    public void unwatch(String lockKey, CountDownLatch latch) {
+        waiters.computeIfPresent(lockKey, (k, w) -> w.latch != latch || --w.count > 0 ? w : null);
+    }
+
+    /**
+     * @return 当前有等待者的锁的数量
+     */
+    public int watchedCount() {
+        return waiters.size();
+    }
+
+    /**
+     * 等待锁释放通知，最多等待到deadline
+     *
+     * @param latch    watch返回的latch
+     * @param deadline 等待截止的时间戳（毫秒）
+     * @return true代表收到了释放通知；false代表等待超时
+     */
+    public boolean await(CountDownLatch latch, long deadline) throws InterruptedException {
+        long remaining = deadline - System.currentTimeMillis();
+        return remaining > 0 && latch.await(remaining, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return 从现在开始计算的最长等待截止时间戳（毫秒）
+     */
+    public long deadline() {
+        return System.currentTimeMillis() + maxWaitMillis;
+    }
+
+    /**
+     * 广播锁已释放的消息，应在删除锁之后调用
+     *
+     * @param lockKey 锁的key
+     */
+    public void notifyReleased(String lockKey) {
+        stringRedisTemplate.convertAndSend(LOCK_RELEASE_CHANNEL, lockKey);
+    }
+
+    private void wakeUp(String lockKey) {
+        Waiters w = waiters.remove(lockKey);
+        if (w != null) {
+            w.latch.countDown();
+        }
+    }
+
+    /**
+     * 同一把锁的等待者，count只在map的compute中修改
+     */
+    private static class Waiters {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private int count;
+    }
+}
@@ -8,18 +8,47 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    public static final long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_FIELDS_KEY = "cache:shop:fields:";
+
+    public static final long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final String CACHE_VOUCHER_KEY = "cache:voucher:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_VERSION_KEY = "cache:version:";
+    public static final Long CACHE_VERSION_TTL = 24L;
+    public static final String BLOOM_FILTER_ADD_CHANNEL = "bloom:add";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_PENDING_KEY = "seckill:pending:";
+    public static final String SECKILL_SOLD_OUT_KEY = "seckill:sold-out:";
+    public static final Long SECKILL_SOLD_OUT_TTL = 24L;
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_RATE_KEY = "seckill:rate:";
+    public static final Long SECKILL_RATE_TTL = 2L;
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_DEAD_LETTER_KEY = "stream.orders.dead-letter";
+    public static final String SECKILL_RECONCILE_LOCK_NAME = "seckill:reconcile";
+    public static final Long SECKILL_RECONCILE_LOCK_TTL = 30L;
+    public static final String CACHE_SECKILL_VOUCHER_KEY = "cache:seckill:voucher:";
+    public static final long CACHE_SECKILL_VOUCHER_TTL = 30L;
 
     public static final String SHOP_TYPE ="shop:type" ;
 
     public static final String LOCK_KEY = "lock:";
+    public static final String LOCK_RELEASE_CHANNEL = "lock:release";
 
     public static final String BLOG_LIKED_KEY = "blog:liked:";
 
+    public static final String ID_WORKER_KEY = "id:worker:";
+
 }
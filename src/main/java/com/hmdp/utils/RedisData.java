@@ -8,4 +8,8 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    /**
+     * 重建该数据所花费的时间（单位毫秒），用于概率提前重建，其他模式下为null
+     */
+    private Long delta;
 }
@@ -1,14 +1,36 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.IdProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 基于redis的全局唯一id：31位时间戳（秒） + 32位序列号，序列号按天自增
+ * <p>
+ * 号段模式下每个节点一次INCRBY租借一段序列号，在本地用原子计数器分配，
+ * 用掉一半时异步预取下一段，热点路径上不访问redis。号段只在租借当天使用，跨天后重新租借，
+ * 序列号仍然按天唯一。未使用的序列号随节点重启丢弃，id不连续但不会重复
+ * </p>
+ */
+@Slf4j
 @Component
-public class RedisIdWorker {
+@ConditionalOnProperty(prefix = "hmdp.id", name = "mode", havingValue = "redis", matchIfMissing = true)
+public class RedisIdWorker implements IdGenerator {
     /**
      * 开始时间戳
      */
@@ -18,13 +40,59 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     private StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private final IdProperties.Segment segmentProperties;
+
+    //业务前缀到号段的映射
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    //预取号段的线程
+    private final ExecutorService SEGMENT_PREFETCH_EXECUTOR =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-prefetch-", true));
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, IdProperties idProperties) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentProperties = idProperties.getSegment();
     }
 
+    @PreDestroy
+    public void shutdown() {
+        SEGMENT_PREFETCH_EXECUTOR.shutdownNow();
+    }
+
+    @Override
     public long nextId(String keyPrefix) {
+        if (!segmentProperties.isEnabled()) {
+            return nextIdByIncr(keyPrefix);
+        }
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            long nowMillis = System.currentTimeMillis();
+            Segment segment = buffer.current;
+            // 1.当天的号段中还有序列号，直接分配
+            if (segment != null && nowMillis < segment.dayEndMillis) {
+                long count = segment.cursor.getAndIncrement();
+                if (count <= segment.max) {
+                    if (count == segment.prefetchAt) {
+                        prefetch(keyPrefix, buffer, segment);
+                    }
+                    // 2.拼接并返回
+                    long timestamp = nowMillis / 1000 + segment.offsetSeconds - BEGIN_TIMESTAMP;
+                    return timestamp << COUNT_BITS | count;
+                }
+            }
+            // 3.号段用完或已跨天，切换到下一个号段
+            switchSegment(keyPrefix, buffer, segment);
+        }
+    }
+
+    /**
+     * 每个id执行一次INCR
+     */
+    private long nextIdByIncr(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
@@ -32,11 +100,95 @@ public class RedisIdWorker {
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         // 2.2.自增长
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * 当前号段用到一半时异步租借下一段
+     */
+    private void prefetch(String keyPrefix, SegmentBuffer buffer, Segment segment) {
+        synchronized (buffer) {
+            if (buffer.current != segment || buffer.next != null) {
+                return;
+            }
+            buffer.next = CompletableFuture.supplyAsync(() -> lease(keyPrefix), SEGMENT_PREFETCH_EXECUTOR);
+        }
+    }
+
+    /**
+     * 切换号段：优先使用预取的号段，预取失败或已跨天时同步租借
+     */
+    private void switchSegment(String keyPrefix, SegmentBuffer buffer, Segment exhausted) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其他线程已经切换
+                return;
+            }
+            Segment next = null;
+            if (buffer.next != null) {
+                try {
+                    next = buffer.next.join();
+                } catch (Exception e) {
+                    log.warn("预取id号段失败，同步租借，业务：{}", keyPrefix, e);
+                }
+                buffer.next = null;
+            }
+            if (next == null || System.currentTimeMillis() >= next.dayEndMillis) {
+                next = lease(keyPrefix);
+            }
+            buffer.current = next;
+        }
+    }
+
+    /**
+     * 租借一段当天的序列号
+     */
+    private Segment lease(String keyPrefix) {
+        LocalDateTime now = LocalDateTime.now();
+        String date = now.format(DATE_FORMATTER);
+        int size = segmentProperties.getSize();
+        Long max = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, size);
+        if (max == null) {
+            throw new IllegalStateException("租借id号段失败，业务：" + keyPrefix);
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        long dayEndMillis = now.toLocalDate().plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        int offsetSeconds = zone.getRules().getOffset(now).getTotalSeconds();
+        return new Segment(max - size + 1, max, dayEndMillis, offsetSeconds);
+    }
+
+    /**
+     * 一段序列号 [cursor初始值, max]
+     */
+    private static class Segment {
+        private final AtomicLong cursor;
+        private final long max;
+        //用到该序列号时预取下一段
+        private final long prefetchAt;
+        //租借当天结束的时间，之后不再使用
+        private final long dayEndMillis;
+        //时区偏移，时间戳与INCR模式一致，使用本地时间
+        private final int offsetSeconds;
+
+        private Segment(long min, long max, long dayEndMillis, int offsetSeconds) {
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+            this.prefetchAt = min + (max - min + 1) / 2;
+            this.dayEndMillis = dayEndMillis;
+            this.offsetSeconds = offsetSeconds;
+        }
+    }
+
+    /**
+     * 一个业务前缀的当前号段与预取的下一段
+     */
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private CompletableFuture<Segment> next;
+    }
 }
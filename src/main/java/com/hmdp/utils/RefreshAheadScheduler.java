@@ -0,0 +1,144 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 逻辑过期key的提前刷新
+ * 记录每个key的访问次数与逻辑过期时间，定时扫描即将过期的key：
+ * 期间访问次数达到阈值的热门key提前重建，第一个在过期之后访问的请求也能拿到新数据；
+ * 访问次数不足的冷key不再跟踪，等下次有请求访问时按原来的逻辑过期流程处理。
+ * 每秒提前刷新的次数不超过配置的数据库QPS预算，超出预算的key留到下一次扫描
+ */
+@Slf4j
+@Component
+public class RefreshAheadScheduler {
+
+    private final CacheProperties.RefreshAhead properties;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    //令牌桶，按数据库QPS预算补充，容量为一秒的预算
+    private double tokens;
+    private long lastRefillTime = System.currentTimeMillis();
+
+    public RefreshAheadScheduler(CacheProperties cacheProperties) {
+        this.properties = cacheProperties.getRefreshAhead();
+    }
+
+    /**
+     * 登记一次访问
+     *
+     * @param key        缓存的key
+     * @param expireTime 当前数据的逻辑过期时间
+     * @param ttlMillis  重建后的逻辑过期时长（单位毫秒）
+     * @param refresher  重建该key的任务
+     */
+    public void track(String key, LocalDateTime expireTime, long ttlMillis, Runnable refresher) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= properties.getMaxKeys()) {
+                return;
+            }
+            entry = entries.computeIfAbsent(key, k -> new Entry(refresher, ttlMillis));
+        }
+        entry.accesses.incrementAndGet();
+        long expireMillis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        //只会向后推迟，读到的旧数据不会覆盖刷新后的过期时间
+        if (expireMillis > entry.expireMillis) {
+            entry.expireMillis = expireMillis;
+        }
+    }
+
+    /**
+     * 重建成功写入redis后调用，以实际写入的逻辑过期时间开始下一个周期
+     *
+     * @param key        缓存的key
+     * @param expireTime 写入的逻辑过期时间
+     */
+    public void refreshed(String key, LocalDateTime expireTime) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        //重新开始统计下一个周期的访问次数
+        entry.accesses.set(0);
+        long expireMillis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (expireMillis > entry.expireMillis) {
+            entry.expireMillis = expireMillis;
+        }
+    }
+
+    /**
+     * 扫描即将过期的key，按访问次数从高到低提前刷新
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.refresh-ahead.scan-interval-millis:1000}")
+    public void scan() {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        refillTokens(now);
+        List<Map.Entry<String, Entry>> due = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().expireMillis - now > properties.getLeadMillis()) {
+                continue;
+            }
+            if (e.getValue().accesses.get() < properties.getMinAccesses()) {
+                //冷key，不再跟踪
+                entries.remove(e.getKey());
+                continue;
+            }
+            due.add(e);
+        }
+        due.sort(Comparator.comparingLong((Map.Entry<String, Entry> e) -> e.getValue().accesses.get()).reversed());
+        for (Map.Entry<String, Entry> e : due) {
+            if (tokens < 1) {
+                log.debug("提前刷新超出数据库QPS预算，{}个key留到下一次扫描", due.size() - due.indexOf(e));
+                break;
+            }
+            tokens--;
+            //刷新任务异步执行，写入成功后通过refreshed更新过期时间；
+            //未成功时（获取锁失败、被去重等）保持原过期时间，下一次扫描时重试
+            try {
+                e.getValue().refresher.run();
+            } catch (Exception ex) {
+                log.error("提前刷新缓存失败，key：{}", e.getKey(), ex);
+            }
+        }
+    }
+
+    private void refillTokens(long now) {
+        double budget = properties.getDbQpsBudget();
+        tokens = Math.min(budget, tokens + (now - lastRefillTime) / 1000.0 * budget);
+        lastRefillTime = now;
+    }
+
+    private static class Entry {
+        final Runnable refresher;
+        final long ttlMillis;
+        //上次刷新以来的访问次数
+        final AtomicLong accesses = new AtomicLong();
+        //逻辑过期时间（毫秒时间戳）
+        volatile long expireMillis;
+
+        Entry(Runnable refresher, long ttlMillis) {
+            this.refresher = refresher;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+}
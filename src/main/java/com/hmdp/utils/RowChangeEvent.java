@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 数据库的行变更事件，来自binlog或回放的记录文件（每行一个json）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RowChangeEvent {
+    public static final String INSERT = "insert";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    /**
+     * 表名
+     */
+    private String table;
+    /**
+     * 变更类型：insert、update、delete
+     */
+    private String type;
+    /**
+     * 主键
+     */
+    private Object id;
+}
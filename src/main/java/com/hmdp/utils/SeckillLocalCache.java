@@ -0,0 +1,124 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀本地缓存，用于在不访问redis与数据库的情况下拒绝请求
+ * <ul>
+ *     <li>秒杀券的开始、结束时间，秒杀券创建时写入，其他节点在第一次请求时从redis加载</li>
+ *     <li>售罄标记，本节点发现库存不足时写入并通过Redis发布订阅广播到所有节点，库存归还时清除；
+ *     广播可能丢失，标记在一段时间后过期，届时由下一个请求重新判断</li>
+ * </ul>
+ */
+@Slf4j
+@Component
+public class SeckillLocalCache {
+
+    //广播消息中状态与id的分隔符
+    private static final String SEPARATOR = "#";
+    private static final String SOLD_OUT = "1";
+    private static final String IN_STOCK = "0";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillProperties.Local properties;
+
+    private final Cache<Long, SeckillVoucher> vouchers;
+
+    //秒杀券id到售罄标记过期时间的映射
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    public SeckillLocalCache(StringRedisTemplate stringRedisTemplate,
+                             SeckillProperties seckillProperties,
+                             RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = seckillProperties.getLocal();
+        this.vouchers = CacheUtil.newLRUCache(properties.getMaxVouchers(),
+                TimeUnit.SECONDS.toMillis(properties.getVoucherTtlSeconds()));
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(SEPARATOR);
+            if (index <= 0) {
+                return;
+            }
+            try {
+                Long voucherId = Long.valueOf(body.substring(index + 1));
+                if (SOLD_OUT.equals(body.substring(0, index))) {
+                    putSoldOut(voucherId);
+                } else {
+                    soldOut.remove(voucherId);
+                }
+            } catch (NumberFormatException e) {
+                log.warn("无法解析的售罄广播：{}", body);
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 查询本地缓存的秒杀券
+     *
+     * @return 不存在或已过期时返回null
+     */
+    public SeckillVoucher getVoucher(Long voucherId) {
+        return vouchers.get(voucherId, false);
+    }
+
+    /**
+     * 写入本地缓存的秒杀券
+     */
+    public void putVoucher(SeckillVoucher voucher) {
+        vouchers.put(voucher.getVoucherId(), voucher);
+    }
+
+    /**
+     * 判断本节点是否已知秒杀券售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long expireTime = soldOut.get(voucherId);
+        if (expireTime == null) {
+            return false;
+        }
+        if (expireTime < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireTime);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记秒杀券售罄并广播到所有节点
+     */
+    public void markSoldOut(Long voucherId) {
+        boolean known = isSoldOut(voucherId);
+        putSoldOut(voucherId);
+        if (!known) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + SEPARATOR + voucherId);
+        }
+    }
+
+    /**
+     * 库存归还或重新加载后清除售罄标记，并广播到所有节点
+     */
+    public void clearSoldOut(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, IN_STOCK + SEPARATOR + voucherId);
+    }
+
+    private void putSoldOut(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + properties.getSoldOutTtlMillis());
+    }
+}
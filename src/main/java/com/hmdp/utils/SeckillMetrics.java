@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 秒杀指标，通过Actuator的metrics端点查看
+ * <ul>
+ *     <li>seckill.order.stream.messages：按result标签区分success、failure、dead_letter、reclaimed，用于计算吞吐量</li>
+ *     <li>seckill.order.stream.lag：消息从写入stream到处理完成的耗时，带直方图</li>
+ *     <li>seckill.order.stream.pending：已投递但未确认的消息数</li>
+ *     <li>seckill.stock.corrections：对账时修正redis库存的次数</li>
+ *     <li>seckill.rate.limited：被限流拒绝的请求数，按reason标签区分local、global、error</li>
+ * </ul>
+ */
+@Component
+public class SeckillMetrics {
+
+    public static final String RESULT_SUCCESS = "success";
+    public static final String RESULT_FAILURE = "failure";
+    public static final String RESULT_DEAD_LETTER = "dead_letter";
+    public static final String RESULT_RECLAIMED = "reclaimed";
+
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final Timer streamLag;
+
+    public SeckillMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.streamLag = Timer.builder("seckill.order.stream.lag")
+                .description("订单消息从写入到处理完成的耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一条订单消息的处理结果
+     *
+     * @param result 处理结果，取值为RESULT_*常量
+     */
+    public void streamMessage(String result) {
+        counters.computeIfAbsent("seckill.order.stream.messages|" + result,
+                k -> Counter.builder("seckill.order.stream.messages")
+                        .description("订单消息处理数")
+                        .tag("result", result)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录订单消息的延迟
+     *
+     * @param createTimeMillis 消息写入stream的时间，即消息id的时间戳部分
+     */
+    public void streamLag(long createTimeMillis) {
+        streamLag.record(Math.max(0, System.currentTimeMillis() - createTimeMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 注册未确认的消息数
+     *
+     * @param pending 返回当前未确认消息数的函数
+     */
+    public void registerStreamPending(Supplier<Number> pending) {
+        Gauge.builder("seckill.order.stream.pending", pending)
+                .description("已投递但未确认的订单消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次对账修正redis库存
+     */
+    public void stockCorrection() {
+        counters.computeIfAbsent("seckill.stock.corrections",
+                k -> Counter.builder("seckill.stock.corrections")
+                        .description("对账修正redis库存的次数")
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录一次被限流拒绝的请求
+     *
+     * @param reason 原因，local为本节点已知配额用完，global为redis中配额用完，error为访问redis失败
+     */
+    public void rateLimited(String reason) {
+        counters.computeIfAbsent("seckill.rate.limited|" + reason,
+                k -> Counter.builder("seckill.rate.limited")
+                        .description("被限流拒绝的秒杀请求数")
+                        .tag("reason", reason)
+                        .register(meterRegistry))
+                .increment();
+    }
+}
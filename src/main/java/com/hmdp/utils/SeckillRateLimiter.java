@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RATE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RATE_TTL;
+
+/**
+ * 秒杀限流，按秒杀券限制每秒进入下单流程的请求数
+ * <p>
+ * 全局配额保存在redis中，按秒计数；每个节点一次租借多个令牌放在本地，
+ * 本地有令牌时不访问redis，本秒的全局配额用完后本节点直到下一秒都直接拒绝，
+ * 被拒绝的请求不占用redis连接与数据库连接。租借到但本秒没有用完的令牌直接丢弃，只会少放行不会多放行。
+ * 调用方应在判断秒杀券存在之后再限流，令牌桶数量有上限，超过一秒未使用的令牌桶没有有效状态，直接淘汰
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillRateLimiter {
+
+    public static final String REASON_LOCAL = "local";
+    public static final String REASON_GLOBAL = "global";
+    public static final String REASON_ERROR = "error";
+
+    private static final DefaultRedisScript<Long> RATE_LEASE_SCRIPT;
+
+    static {
+        RATE_LEASE_SCRIPT = new DefaultRedisScript<>();
+        RATE_LEASE_SCRIPT.setLocation(new ClassPathResource("seckill_rate_lease.lua"));
+        RATE_LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillProperties.RateLimit properties;
+    private final SeckillMetrics seckillMetrics;
+
+    private final Cache<Long, Bucket> buckets;
+
+    public SeckillRateLimiter(StringRedisTemplate stringRedisTemplate,
+                              SeckillProperties seckillProperties,
+                              SeckillMetrics seckillMetrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = seckillProperties.getRateLimit();
+        this.seckillMetrics = seckillMetrics;
+        this.buckets = CacheUtil.newLRUCache(properties.getMaxBuckets(), TimeUnit.SECONDS.toMillis(SECKILL_RATE_TTL));
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @return false代表超过配额，应当立即返回让用户稍后重试
+     */
+    public boolean tryAcquire(Long voucherId) {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        int limit = properties.getVouchers().getOrDefault(voucherId, properties.getPermitsPerSecond());
+        if (limit <= 0) {
+            seckillMetrics.rateLimited(REASON_LOCAL);
+            return false;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        Bucket bucket = buckets.get(voucherId, Bucket::new);
+        //同一秒杀券在本节点同一时间只有一个线程租借，其余线程等待租借结果
+        synchronized (bucket) {
+            //1、进入新的一秒，丢弃上一秒剩余的令牌
+            if (bucket.second != second) {
+                bucket.second = second;
+                bucket.tokens = 0;
+                bucket.exhausted = false;
+            }
+            //2、本地有令牌，直接放行
+            if (bucket.tokens > 0) {
+                bucket.tokens--;
+                return true;
+            }
+            //3、本秒的全局配额已经用完，直接拒绝
+            if (bucket.exhausted) {
+                seckillMetrics.rateLimited(REASON_LOCAL);
+                return false;
+            }
+            //4、从redis租借令牌
+            long granted;
+            try {
+                Long result = stringRedisTemplate.execute(RATE_LEASE_SCRIPT,
+                        Collections.singletonList(SECKILL_RATE_KEY + voucherId + ":" + second),
+                        String.valueOf(limit), String.valueOf(Math.min(properties.getLeaseSize(), limit)),
+                        String.valueOf(SECKILL_RATE_TTL));
+                granted = result == null ? 0 : result;
+            } catch (Exception e) {
+                log.debug("租借秒杀令牌失败，秒杀券：{}", voucherId, e);
+                seckillMetrics.rateLimited(REASON_ERROR);
+                return false;
+            }
+            if (granted <= 0) {
+                bucket.exhausted = true;
+                seckillMetrics.rateLimited(REASON_GLOBAL);
+                return false;
+            }
+            bucket.tokens = granted - 1;
+            return true;
+        }
+    }
+
+    /**
+     * @return 本节点当前的令牌桶个数
+     */
+    public int bucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * 本节点一个秒杀券的令牌桶
+     */
+    private static class Bucket {
+        //令牌所属的秒
+        private long second;
+        //剩余的令牌数
+        private long tokens;
+        //本秒的全局配额是否已经用完
+        private boolean exhausted;
+    }
+}
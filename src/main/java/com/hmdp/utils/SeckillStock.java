@@ -0,0 +1,418 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_PENDING_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存，负责redis中库存与已下单用户集合的读写
+ * <p>
+ * 不分片时每个秒杀券一个库存key，由seckill.lua一次完成判断、扣减与发送订单消息。
+ * 分片时库存平均分到N个key上（seckill:stock:{voucherId:i}），已下单用户集合也按相同的hash tag分片，
+ * 用户按id固定路由到一个分片，一人一单只需判断该分片；该分片库存不足时依次探测其他分片，
+ * 从其他分片扣减成功后才在所属分片记录用户（SADD的返回值同时完成一人一单判断），
+ * 全部分片都不足时设置售罄标记，之后的请求不再探测。分片模式下订单消息在扣减成功后单独发送，
+ * 扣减库存的脚本同时在该分片的待发送订单hash中记录订单，发送成功后删除；
+ * 发送前宕机留下的记录超时后由对账归还库存到扣减的分片，见 releaseStalePending。
+ * 两种模式下发现库存不足时都会设置本地售罄标记并广播，见 SeckillLocalCache
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillStock {
+
+    public static final long RESULT_OK = 0;
+    public static final long RESULT_INSUFFICIENT = 1;
+    public static final long RESULT_DUPLICATE = 2;
+    public static final long RESULT_NOT_LOADED = 3;
+
+    //不分片时的秒杀脚本
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    //分片时在用户所属分片上执行的秒杀脚本
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    //分片时从其他分片扣减库存的脚本
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_TAKE_SCRIPT;
+    //归还库存的脚本
+    private static final DefaultRedisScript<Long> SECKILL_ROLLBACK_SCRIPT;
+    //分片时归还待发送订单扣减的库存的脚本
+    private static final DefaultRedisScript<Long> SECKILL_PENDING_RELEASE_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+        SECKILL_SHARD_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_shard_take.lua"));
+        SECKILL_SHARD_TAKE_SCRIPT.setResultType(Long.class);
+        SECKILL_ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_ROLLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_rollback.lua"));
+        SECKILL_ROLLBACK_SCRIPT.setResultType(Long.class);
+        SECKILL_PENDING_RELEASE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_PENDING_RELEASE_SCRIPT.setLocation(new ClassPathResource("seckill_pending_release.lua"));
+        SECKILL_PENDING_RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillLocalCache seckillLocalCache;
+    private final int shards;
+
+    public SeckillStock(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                        SeckillLocalCache seckillLocalCache) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillLocalCache = seckillLocalCache;
+        this.shards = Math.max(1, seckillProperties.getStock().getShards());
+    }
+
+    /**
+     * 判断秒杀资格并扣减库存，成功后发送订单消息
+     *
+     * @return 取值为RESULT_*常量
+     */
+    public long acquire(Long voucherId, Long userId, long orderId) {
+        if (shards == 1) {
+            List<String> keys = Arrays.asList(stockKey(voucherId, 0), orderKey(voucherId, 0), SECKILL_ORDER_STREAM_KEY);
+            Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, keys,
+                    userId.toString(), voucherId.toString(), String.valueOf(orderId));
+            if (result == null || result == RESULT_INSUFFICIENT) {
+                seckillLocalCache.markSoldOut(voucherId);
+                return RESULT_INSUFFICIENT;
+            }
+            return result;
+        }
+        //1、已售罄直接返回（其他节点设置的标记，或本节点的本地标记已过期）
+        if (isSoldOut(voucherId)) {
+            seckillLocalCache.markSoldOut(voucherId);
+            return RESULT_INSUFFICIENT;
+        }
+        //2、在用户所属分片上判断一人一单并扣减库存，同时记录待发送的订单
+        int home = homeShard(userId);
+        String now = String.valueOf(System.currentTimeMillis());
+        Long result = stringRedisTemplate.execute(SECKILL_SHARD_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home), pendingKey(voucherId, home)),
+                userId.toString(), String.valueOf(orderId), now);
+        if (result == null) {
+            return RESULT_INSUFFICIENT;
+        }
+        int shard = home;
+        //3、所属分片库存不足，依次探测其他分片，全部不足时标记售罄
+        if (result == RESULT_INSUFFICIENT) {
+            shard = takeFromSiblings(voucherId, home, userId, orderId, now);
+            if (shard < 0) {
+                stringRedisTemplate.opsForValue().set(SECKILL_SOLD_OUT_KEY + voucherId, "1",
+                        SECKILL_SOLD_OUT_TTL, TimeUnit.HOURS);
+                seckillLocalCache.markSoldOut(voucherId);
+                return RESULT_INSUFFICIENT;
+            }
+            //4、扣减成功后在所属分片记录用户，同一用户的并发请求只有一个能记录成功
+            Long added;
+            try {
+                added = stringRedisTemplate.opsForSet().add(orderKey(voucherId, home), userId.toString());
+            } catch (RuntimeException e) {
+                releasePending(voucherId, shard, orderId, userId);
+                throw e;
+            }
+            if (added == null || added == 0) {
+                returnStock(voucherId, shard, orderId);
+                return RESULT_DUPLICATE;
+            }
+            result = RESULT_OK;
+        }
+        if (result != RESULT_OK) {
+            return result;
+        }
+        //5、发送订单消息，字段名与VoucherOrder的属性名一致，发送失败时归还库存
+        Map<String, String> order = new HashMap<>(4);
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", String.valueOf(orderId));
+        try {
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM_KEY, order);
+        } catch (RuntimeException e) {
+            releasePending(voucherId, shard, orderId, userId);
+            throw e;
+        }
+        //6、订单消息已发送，删除待发送记录
+        removePending(voucherId, shard, orderId);
+        return RESULT_OK;
+    }
+
+    /**
+     * 从用户所属分片之后的分片依次尝试扣减一个库存
+     *
+     * @return 扣减成功的分片，全部不足时返回-1
+     */
+    private int takeFromSiblings(Long voucherId, int home, Long userId, long orderId, String now) {
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long taken = stringRedisTemplate.execute(SECKILL_SHARD_TAKE_SCRIPT,
+                    Arrays.asList(stockKey(voucherId, shard), pendingKey(voucherId, shard)),
+                    userId.toString(), String.valueOf(orderId), now);
+            if (taken != null && taken == 1) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 归还一条待发送订单扣减的库存，并删除所属分片中的用户记录，允许该用户重新下单。
+     * 归还失败时待发送记录仍然存在，由对账在超时后归还
+     */
+    private boolean releasePending(Long voucherId, int shard, long orderId, Long userId) {
+        try {
+            boolean released = returnStock(voucherId, shard, orderId);
+            stringRedisTemplate.opsForSet().remove(orderKey(voucherId, homeShard(userId)), userId.toString());
+            return released;
+        } catch (RuntimeException e) {
+            log.warn("归还待发送订单的库存失败，由对账归还，订单：{}", orderId, e);
+            return false;
+        }
+    }
+
+    /**
+     * 归还待发送订单扣减的库存到扣减时的分片，待发送记录不存在时不归还
+     */
+    private boolean returnStock(Long voucherId, int shard, long orderId) {
+        Long released = stringRedisTemplate.execute(SECKILL_PENDING_RELEASE_SCRIPT,
+                Arrays.asList(stockKey(voucherId, shard), pendingKey(voucherId, shard)), String.valueOf(orderId));
+        if (released != null && released == 1) {
+            clearSoldOut(voucherId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 删除待发送的订单记录，删除失败时由对账在超时后清理
+     */
+    private void removePending(Long voucherId, int shard, long orderId) {
+        try {
+            stringRedisTemplate.opsForHash().delete(pendingKey(voucherId, shard), String.valueOf(orderId));
+        } catch (RuntimeException e) {
+            log.warn("删除待发送订单记录失败，由对账清理，订单：{}", orderId, e);
+        }
+    }
+
+    /**
+     * 清理超时的待发送订单记录，只在分片时使用。
+     * 记录超时说明扣减库存后订单消息未发送（节点宕机），或发送成功后未能删除记录：
+     * 订单已落库时只删除记录，否则归还库存并允许用户重新下单。
+     * 订单消息已发送但超时仍未落库时也会归还库存，之后落库时由数据库的库存与一人一单判断兜底，
+     * 多归还的库存由对账修正
+     *
+     * @param timeoutMillis 记录超过该时间视为超时
+     * @param persisted     判断订单是否已落库
+     * @return 归还的库存数
+     */
+    public int releaseStalePending(Long voucherId, long timeoutMillis, Predicate<Long> persisted) {
+        if (shards == 1) {
+            return 0;
+        }
+        long deadline = System.currentTimeMillis() - timeoutMillis;
+        int released = 0;
+        for (int i = 0; i < shards; i++) {
+            String pendingKey = pendingKey(voucherId, i);
+            Map<Object, Object> pending = stringRedisTemplate.opsForHash().entries(pendingKey);
+            for (Map.Entry<Object, Object> e : pending.entrySet()) {
+                //记录的值为 用户id:记录时间
+                String[] value = e.getValue().toString().split(":");
+                if (Long.parseLong(value[1]) > deadline) {
+                    continue;
+                }
+                Long orderId = Long.valueOf(e.getKey().toString());
+                if (persisted.test(orderId)) {
+                    stringRedisTemplate.opsForHash().delete(pendingKey, e.getKey());
+                } else if (releasePending(voucherId, i, orderId, Long.valueOf(value[0]))) {
+                    released++;
+                    log.warn("秒杀券 {} 的订单 {} 扣减库存后未发送订单消息，已归还库存", voucherId, orderId);
+                }
+            }
+        }
+        return released;
+    }
+
+    /**
+     * 归还预扣减的库存，并允许该用户重新下单
+     * 库存归还到用户所属分片，对账只关心各分片之和
+     */
+    public void release(Long voucherId, Long userId) {
+        int home = homeShard(userId);
+        Long released = stringRedisTemplate.execute(SECKILL_ROLLBACK_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home)), userId.toString());
+        if (released != null && released == 1) {
+            clearSoldOut(voucherId);
+        }
+    }
+
+    /**
+     * 将库存写入redis，分片时平均分到各分片，余数分给前几个分片
+     *
+     * @param stocks    秒杀券id到库存的映射
+     * @param overwrite true时覆盖已有库存（新建秒杀券），false时只写入缺失的分片（预热）
+     */
+    public void load(Map<Long, Integer> stocks, boolean overwrite) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                stocks.forEach((voucherId, stock) -> {
+                    for (int i = 0; i < shards; i++) {
+                        String value = String.valueOf(stock / shards + (i < stock % shards ? 1 : 0));
+                        if (overwrite) {
+                            operations.opsForValue().set(stockKey(voucherId, i), value);
+                        } else {
+                            operations.opsForValue().setIfAbsent(stockKey(voucherId, i), value);
+                        }
+                    }
+                    if (overwrite && shards > 1) {
+                        operations.delete(SECKILL_SOLD_OUT_KEY + voucherId);
+                    }
+                });
+                return null;
+            }
+        });
+        if (overwrite) {
+            stocks.keySet().forEach(seckillLocalCache::clearSoldOut);
+        }
+    }
+
+    /**
+     * 查询redis中的剩余库存（各分片之和）
+     *
+     * @return 所有分片都不存在时返回null
+     */
+    public Long remaining(Long voucherId) {
+        List<Object> values = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (int i = 0; i < shards; i++) {
+                    operations.opsForValue().get(stockKey(voucherId, i));
+                }
+                return null;
+            }
+        });
+        Long total = null;
+        for (Object value : values) {
+            if (value != null) {
+                total = (total == null ? 0 : total) + Long.parseLong(value.toString());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 查询redis中已获得秒杀资格的用户数（各分片之和）
+     */
+    public long admittedCount(Long voucherId) {
+        List<Object> values = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (int i = 0; i < shards; i++) {
+                    operations.opsForSet().size(orderKey(voucherId, i));
+                }
+                return null;
+            }
+        });
+        long total = 0;
+        for (Object value : values) {
+            if (value != null) {
+                total += ((Number) value).longValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 判断是否有扣减库存后尚未发送订单消息的记录，只在分片时存在
+     */
+    public boolean hasPending(Long voucherId) {
+        if (shards == 1) {
+            return false;
+        }
+        List<Object> sizes = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (int i = 0; i < shards; i++) {
+                    operations.opsForHash().size(pendingKey(voucherId, i));
+                }
+                return null;
+            }
+        });
+        for (Object size : sizes) {
+            if (size != null && ((Number) size).longValue() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 修正redis中的库存，修正量加到第一个分片上
+     *
+     * @param delta 修正量，正数为增加库存
+     */
+    public void adjust(Long voucherId, long delta) {
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, 0), delta);
+        if (delta > 0) {
+            clearSoldOut(voucherId);
+        }
+    }
+
+    /**
+     * 判断秒杀券是否已售罄，只在分片时使用
+     */
+    public boolean isSoldOut(Long voucherId) {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_SOLD_OUT_KEY + voucherId));
+    }
+
+    /**
+     * 库存增加后清除redis与各节点本地的售罄标记
+     */
+    private void clearSoldOut(Long voucherId) {
+        if (shards > 1) {
+            stringRedisTemplate.delete(SECKILL_SOLD_OUT_KEY + voucherId);
+        }
+        seckillLocalCache.clearSoldOut(voucherId);
+    }
+
+    private int homeShard(Long userId) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    private String stockKey(Long voucherId, int shard) {
+        return shards == 1 ? SECKILL_STOCK_KEY + voucherId : SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private String pendingKey(Long voucherId, int shard) {
+        return SECKILL_PENDING_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private String orderKey(Long voucherId, int shard) {
+        return shards == 1 ? SECKILL_ORDER_KEY + voucherId : SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+}
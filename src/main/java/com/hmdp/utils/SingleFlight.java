@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的请求合并（single-flight）工具
+ * 同一个JVM中，针对同一个key的并发调用只有第一个线程（leader）真正执行加载逻辑，
+ * 其余线程等待并共享leader的结果，加载结束后立即移除，不会缓存结果
+ */
+public class SingleFlight {
+
+    //正在执行中的加载任务，key为缓存key
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 执行加载逻辑，同一key的并发调用共享同一次执行结果
+     *
+     * @param key    合并请求的key
+     * @param loader 真正的加载逻辑
+     * @param <R>    返回值类型
+     * @return 加载结果
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            //已有线程在加载，等待其结果
+            return (R) await(existing);
+        }
+        //当前线程为leader，执行加载逻辑
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return 当前正在执行中的加载任务数量
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private Object await(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            //还原leader抛出的原始异常
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.RandomUtil;
+import com.hmdp.config.IdProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * snowflake全局唯一id：1位符号位 + 41位时间戳（毫秒） + 10位worker id + 12位序列号
+ * <p>
+ * id完全在本地生成，不访问redis；worker id在启动时从redis租借（SET NX EX），之后定时续期。
+ * 距离上次租借或续期成功的时间接近租约时间时拒绝生成id，租约过期后其他节点可能已经占用该worker id；
+ * redis暂时不可用时在租约内继续生成。续期时发现租约已过期或被其他节点占用则重新租借，
+ * 租借成功之前拒绝生成id，避免与其他节点重复。
+ * id的时间戳不会领先墙上时钟：小幅回拨和同一毫秒内序列号用完时等待时钟，大幅回拨时拒绝生成
+ * </p>
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hmdp.id", name = "mode", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdGenerator {
+    /**
+     * 开始时间戳（毫秒），与RedisIdWorker相同
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200000L;
+    /**
+     * worker id的位数
+     */
+    private static final int WORKER_ID_BITS = 10;
+    /**
+     * 序列号的位数
+     */
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    //续期worker id租约的lua脚本
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    //释放worker id的lua脚本，与释放锁相同
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IdProperties.Snowflake properties;
+
+    //本节点在redis中的标识，用于判断worker id是否仍归本节点所有
+    private final String token = UUID.randomUUID().toString(true);
+
+    //当前的worker id，小于0代表租约已被其他节点占用且尚未重新租借
+    private volatile int workerId = -1;
+    //是否从redis租借
+    private boolean leased;
+    //最近一次租借或续期成功的时间（System.nanoTime），取发送命令之前的时间，保守地估计租约的开始时间；
+    //使用单调时钟，墙上时钟回拨不会延长租约的有效期
+    private volatile long lastRenewNanos;
+    //距离上次续期成功超过该时间后拒绝生成id
+    private final long leaseValidMillis;
+
+    private long lastTimestamp = -1;
+    private long sequence = 0;
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate, IdProperties idProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = idProperties.getSnowflake();
+        this.leaseValidMillis = TimeUnit.SECONDS.toMillis(properties.getLeaseTtlSeconds())
+                - properties.getLeaseSafetyMillis();
+    }
+
+    @PostConstruct
+    public void init() {
+        int configured = properties.getWorkerId();
+        if (configured > MAX_WORKER_ID) {
+            throw new IllegalStateException("worker id超出范围：" + configured);
+        }
+        if (configured >= 0) {
+            workerId = configured;
+        } else {
+            if (leaseValidMillis <= properties.getHeartbeatIntervalMillis()) {
+                throw new IllegalStateException("worker id租约时间必须大于续期间隔与安全余量之和");
+            }
+            leased = true;
+            workerId = leaseWorkerId();
+        }
+        log.info("snowflake id生成器启动，worker id：{}", workerId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (leased && workerId >= 0) {
+            try {
+                stringRedisTemplate.execute(RELEASE_SCRIPT,
+                        Collections.singletonList(ID_WORKER_KEY + workerId), token);
+            } catch (Exception e) {
+                log.warn("释放worker id失败，租约到期后自动释放，worker id：{}", workerId, e);
+            }
+        }
+    }
+
+    /**
+     * 生成id，业务前缀不参与计算
+     */
+    @Override
+    public synchronized long nextId(String keyPrefix) {
+        int worker = workerId;
+        if (worker < 0) {
+            throw new IllegalStateException("worker id租约已被其他节点占用，等待重新租借");
+        }
+        // 1.获取时间戳，处理时钟回拨
+        if (leased && TimeUnit.NANOSECONDS.toMillis(nanoTime() - lastRenewNanos) >= leaseValidMillis) {
+            throw new IllegalStateException("worker id租约即将过期且未能续期，停止生成id，worker id：" + worker);
+        }
+        long timestamp = currentTimeMillis();
+        if (timestamp < lastTimestamp) {
+            long backward = lastTimestamp - timestamp;
+            if (backward > properties.getMaxBackwardMillis()) {
+                // 大幅回拨，拒绝生成；生成的id不能领先墙上时钟，否则租约转移或重启后这些时间戳会被再次使用
+                log.error("时钟回拨 {} ms，拒绝生成id", backward);
+                throw new IllegalStateException("时钟回拨 " + backward + " ms，拒绝生成id");
+            }
+            // 小幅回拨，等待时钟追上
+            timestamp = waitUntil(lastTimestamp);
+        }
+
+        // 2.生成序列号，同一毫秒内的序列号用完时使用下一毫秒
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                timestamp = waitUntil(lastTimestamp + 1);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+
+        // 3.拼接并返回
+        return (timestamp - BEGIN_TIMESTAMP) << (WORKER_ID_BITS + SEQUENCE_BITS)
+                | (long) worker << SEQUENCE_BITS
+                | sequence;
+    }
+
+    /**
+     * 定时续期worker id租约；租约已过期或被其他节点占用时重新租借
+     */
+    @Scheduled(fixedDelayString = "${hmdp.id.snowflake.heartbeat-interval-millis:20000}")
+    public void heartbeat() {
+        if (!leased) {
+            return;
+        }
+        int current = workerId;
+        try {
+            if (current < 0) {
+                workerId = leaseWorkerId();
+                log.info("重新租借worker id：{}", workerId);
+                return;
+            }
+            long begin = nanoTime();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + current),
+                    token, String.valueOf(properties.getLeaseTtlSeconds()));
+            if (renewed != null && renewed == 1) {
+                lastRenewNanos = begin;
+                return;
+            }
+            log.error("worker id {} 的租约已过期或被其他节点占用，停止生成id并重新租借", current);
+            workerId = -1;
+            workerId = leaseWorkerId();
+            log.info("重新租借worker id：{}", workerId);
+        } catch (Exception e) {
+            // redis不可用时在租约内继续使用当前的worker id，租约即将过期时nextId拒绝生成
+            log.warn("续期worker id失败，worker id：{}", current, e);
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试占用一个空闲的worker id
+     */
+    private int leaseWorkerId() {
+        int start = RandomUtil.randomInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            int candidate = (start + i) & MAX_WORKER_ID;
+            long begin = nanoTime();
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(ID_WORKER_KEY + candidate, token,
+                    properties.getLeaseTtlSeconds(), TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                lastRenewNanos = begin;
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("没有空闲的worker id");
+    }
+
+    /**
+     * 等待时钟到达指定时间
+     */
+    private long waitUntil(long target) {
+        long timestamp = currentTimeMillis();
+        while (timestamp < target) {
+            Thread.yield();
+            timestamp = currentTimeMillis();
+        }
+        return timestamp;
+    }
+
+    /**
+     * 生成id使用的时钟，测试中替换以模拟时钟回拨
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * 计算租约有效期使用的单调时钟
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+}
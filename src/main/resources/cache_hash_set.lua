@@ -0,0 +1,15 @@
+-- 带版本校验的hash缓存写入，整体替换原有的hash
+-- KEYS[1] 缓存的key，KEYS[2] 版本号的key
+-- ARGV[1] 查询数据库之前读到的版本号，ARGV[2] 过期时间（毫秒），ARGV[3]开始依次为field与value
+
+-- 版本号已变化，说明查询数据库期间数据被更新过，拒绝写入旧数据
+local current = redis.call('get', KEYS[2]) or '0'
+if (current ~= ARGV[1]) then
+    return 0
+end
+redis.call('del', KEYS[1])
+for i = 3, #ARGV, 2 do
+    redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1])
+end
+redis.call('pexpire', KEYS[1], ARGV[2])
+return 1
@@ -0,0 +1,18 @@
+-- 原地更新hash缓存中的单个字段
+-- KEYS[1] 缓存的key，KEYS[2] 版本号的key
+-- ARGV[1] 操作：incr或set，ARGV[2] 字段，ARGV[3] 增量或新值，ARGV[4] 版本号的过期时间（毫秒）
+
+-- 缓存中有正常数据时直接修改该字段
+if (redis.call('hget', KEYS[1], '@') == '1') then
+    if (ARGV[1] == 'incr') then
+        redis.call('hincrby', KEYS[1], ARGV[2], ARGV[3])
+    else
+        redis.call('hset', KEYS[1], ARGV[2], ARGV[3])
+    end
+    return 1
+end
+-- 缓存不存在（或为空值）时删除并递增版本号，正在重建的线程写回旧数据时会被拒绝
+redis.call('incr', KEYS[2])
+redis.call('pexpire', KEYS[2], ARGV[4])
+redis.call('del', KEYS[1])
+return 0
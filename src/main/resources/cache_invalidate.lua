@@ -0,0 +1,8 @@
+-- 使缓存失效：递增版本号并删除缓存
+-- KEYS[1] 缓存的key，KEYS[2] 版本号的key
+-- ARGV[1] 版本号的过期时间（毫秒）
+
+-- 先递增版本号，正在查询数据库的线程读到的是旧版本号，写回缓存时会被拒绝
+redis.call('incr', KEYS[2])
+redis.call('pexpire', KEYS[2], ARGV[1])
+return redis.call('del', KEYS[1])
@@ -0,0 +1,15 @@
+-- 带版本校验的缓存写入
+-- KEYS[1] 缓存的key，KEYS[2] 版本号的key
+-- ARGV[1] 查询数据库之前读到的版本号，ARGV[2] 缓存值，ARGV[3] 过期时间（毫秒），0代表不过期
+
+-- 版本号已变化，说明查询数据库期间数据被更新过，拒绝写入旧数据
+local current = redis.call('get', KEYS[2]) or '0'
+if (current ~= ARGV[1]) then
+    return 0
+end
+if (tonumber(ARGV[3]) > 0) then
+    redis.call('set', KEYS[1], ARGV[2], 'px', ARGV[3])
+else
+    redis.call('set', KEYS[1], ARGV[2])
+end
+return 1
@@ -0,0 +1,11 @@
+-- 续期snowflake的worker id租约
+-- KEYS[1] worker id的key
+-- ARGV[1] 本节点的标识，ARGV[2] 租约时间（秒）
+-- 返回值：1 续期成功，0 租约已过期或已被其他节点占用
+-- key已过期时不重新占用：过期期间其他节点可能已经租借并释放了该worker id，由调用方重新租借
+
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    redis.call('expire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
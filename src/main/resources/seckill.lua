@@ -0,0 +1,23 @@
+-- 秒杀资格判断与库存预扣减，一次执行完成，保证原子性
+-- KEYS[1] 库存的key，KEYS[2] 已下单用户集合的key，KEYS[3] 订单消息队列（stream）的key
+-- ARGV[1] 用户id，ARGV[2] 优惠券id，ARGV[3] 订单id
+-- 返回值：0 成功，1 库存不足，2 重复下单，3 库存尚未加载到redis
+
+local stock = redis.call('get', KEYS[1])
+if (stock == false) then
+    return 3
+end
+-- 判断库存是否充足
+if (tonumber(stock) <= 0) then
+    return 1
+end
+-- 判断用户是否已经下过单
+if (redis.call('sismember', KEYS[2], ARGV[1]) == 1) then
+    return 2
+end
+-- 扣减库存，记录下单用户
+redis.call('incrby', KEYS[1], -1)
+redis.call('sadd', KEYS[2], ARGV[1])
+-- 发送订单消息，字段名与VoucherOrder的属性名一致
+redis.call('xadd', KEYS[3], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+return 0
@@ -0,0 +1,10 @@
+-- 分片库存模式下，归还一条待发送订单扣减的库存
+-- KEYS[1] 扣减库存的分片库存的key，KEYS[2] 同一分片待发送订单的hash，两者使用相同的hash tag，位于同一个slot
+-- ARGV[1] 订单id
+-- 返回值：1 已归还，0 记录不存在（已经归还或已被删除），重复调用不会多归还
+
+if (redis.call('hdel', KEYS[2], ARGV[1]) == 1) then
+    redis.call('incrby', KEYS[1], 1)
+    return 1
+end
+return 0
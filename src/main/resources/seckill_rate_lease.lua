@@ -0,0 +1,14 @@
+-- 从秒杀券当前一秒的全局配额中租借令牌
+-- KEYS[1] 配额计数的key（按秒划分）
+-- ARGV[1] 每秒的全局配额，ARGV[2] 本次租借的令牌数，ARGV[3] key的过期时间（秒）
+-- 返回值：实际租借到的令牌数，0代表本秒的配额已经用完
+
+local used = tonumber(redis.call('get', KEYS[1]) or '0')
+local limit = tonumber(ARGV[1])
+if (used >= limit) then
+    return 0
+end
+local granted = math.min(tonumber(ARGV[2]), limit - used)
+redis.call('incrby', KEYS[1], granted)
+redis.call('expire', KEYS[1], ARGV[3])
+return granted
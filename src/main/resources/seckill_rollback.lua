@@ -0,0 +1,9 @@
+-- 订单落库失败时归还预扣减的库存，并允许该用户重新下单
+-- KEYS[1] 库存的key，KEYS[2] 已下单用户集合的key
+-- ARGV[1] 用户id
+
+if (redis.call('srem', KEYS[2], ARGV[1]) == 1) then
+    redis.call('incrby', KEYS[1], 1)
+    return 1
+end
+return 0
@@ -0,0 +1,22 @@
+-- 分片库存模式下，在用户所属的分片上判断一人一单并扣减库存
+-- KEYS[1] 分片库存的key，KEYS[2] 分片已下单用户集合的key，KEYS[3] 分片待发送订单的hash，三者使用相同的hash tag，位于同一个slot
+-- ARGV[1] 用户id，ARGV[2] 订单id，ARGV[3] 当前时间（毫秒）
+-- 返回值：0 成功，1 本分片库存不足（不记录用户，由调用方探测其他分片），2 重复下单，3 库存尚未加载到redis
+
+local stock = redis.call('get', KEYS[1])
+if (stock == false) then
+    return 3
+end
+-- 判断用户是否已经下过单，用户总是记录在所属的分片，因此只需判断本分片
+if (redis.call('sismember', KEYS[2], ARGV[1]) == 1) then
+    return 2
+end
+-- 判断库存是否充足，不足时不记录用户，探测失败或中断时不会留下没有订单的用户记录
+if (tonumber(stock) <= 0) then
+    return 1
+end
+redis.call('incrby', KEYS[1], -1)
+redis.call('sadd', KEYS[2], ARGV[1])
+-- 订单消息由调用方单独发送，与扣减库存在同一个脚本中记录待发送的订单，发送前宕机时由对账归还库存
+redis.call('hset', KEYS[3], ARGV[2], ARGV[1] .. ':' .. ARGV[3])
+return 0
@@ -0,0 +1,13 @@
+-- 分片库存模式下，用户所属分片库存不足时，从其他分片扣减一个库存
+-- KEYS[1] 分片库存的key，KEYS[2] 分片待发送订单的hash，两者使用相同的hash tag，位于同一个slot
+-- ARGV[1] 用户id，ARGV[2] 订单id，ARGV[3] 当前时间（毫秒）
+-- 返回值：1 成功，0 库存不足或尚未加载
+
+local stock = redis.call('get', KEYS[1])
+if (stock == false or tonumber(stock) <= 0) then
+    return 0
+end
+redis.call('incrby', KEYS[1], -1)
+-- 与扣减库存在同一个脚本中记录待发送的订单，发送前宕机时由对账归还库存
+redis.call('hset', KEYS[2], ARGV[2], ARGV[1] .. ':' .. ARGV[3])
+return 1
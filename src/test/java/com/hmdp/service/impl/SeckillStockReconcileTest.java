@@ -0,0 +1,128 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.SeckillStockSnapshotDTO;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.utils.SeckillMetrics;
+import com.hmdp.utils.SeckillStock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 库存对账：只在订单流水静止时比较，连续两次差值相同才修正，并且只自动减少redis库存
+ */
+class SeckillStockReconcileTest {
+
+    private static final Long VOUCHER_ID = 7L;
+
+    private final SeckillStock seckillStock = mock(SeckillStock.class);
+    private final StreamOperations<String, Object, Object> streamOps = mockStreamOps();
+    private final SeckillVoucherServiceImpl service = new SeckillVoucherServiceImpl();
+
+    @BeforeEach
+    void setUp() {
+        //数据库库存90，已落库10个订单
+        SeckillStockSnapshotDTO snapshot = new SeckillStockSnapshotDTO();
+        snapshot.setVoucherId(VOUCHER_ID);
+        snapshot.setStock(90);
+        snapshot.setOrderCount(10);
+        SeckillVoucherMapper seckillVoucherMapper = mock(SeckillVoucherMapper.class);
+        when(seckillVoucherMapper.selectStockSnapshots(any())).thenReturn(Collections.singletonList(snapshot));
+
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        when(stringRedisTemplate.opsForStream()).thenReturn(streamOps);
+        streamAt("5-0", "5-0", 0);
+
+        ReflectionTestUtils.setField(service, "baseMapper", seckillVoucherMapper);
+        ReflectionTestUtils.setField(service, "voucherOrderMapper", mock(VoucherOrderMapper.class));
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "seckillStock", seckillStock);
+        ReflectionTestUtils.setField(service, "seckillProperties", new SeckillProperties());
+        ReflectionTestUtils.setField(service, "seckillMetrics", mock(SeckillMetrics.class));
+        //redis中已下单用户10个，全部已落库
+        when(seckillStock.admittedCount(VOUCHER_ID)).thenReturn(10L);
+    }
+
+    @Test
+    void excessRedisStockIsRemovedAfterTwoEqualDrifts() {
+        when(seckillStock.remaining(VOUCHER_ID)).thenReturn(95L);
+        service.doReconcileStock();
+        verify(seckillStock, never()).adjust(anyLong(), anyLong());
+        service.doReconcileStock();
+        verify(seckillStock, times(1)).adjust(VOUCHER_ID, -5L);
+    }
+
+    @Test
+    void missingRedisStockIsOnlyReported() {
+        when(seckillStock.remaining(VOUCHER_ID)).thenReturn(85L);
+        service.doReconcileStock();
+        service.doReconcileStock();
+        service.doReconcileStock();
+        verify(seckillStock, never()).adjust(anyLong(), anyLong());
+    }
+
+    @Test
+    void skippedWhileOrdersAreInFlight() {
+        when(seckillStock.remaining(VOUCHER_ID)).thenReturn(95L);
+        //有未确认的消息
+        streamAt("5-0", "5-0", 1);
+        service.doReconcileStock();
+        service.doReconcileStock();
+        //有未投递的消息
+        streamAt("6-0", "5-0", 0);
+        service.doReconcileStock();
+        service.doReconcileStock();
+        //有待发送的订单
+        streamAt("6-0", "6-0", 0);
+        when(seckillStock.hasPending(VOUCHER_ID)).thenReturn(true);
+        service.doReconcileStock();
+        service.doReconcileStock();
+        verify(seckillStock, never()).adjust(anyLong(), anyLong());
+    }
+
+    @Test
+    void skippedWhenNewOrdersArriveDuringTheReads() {
+        //读取redis期间有新的订单消息
+        when(seckillStock.remaining(VOUCHER_ID)).thenAnswer(invocation -> {
+            String next = String.valueOf(System.nanoTime()) + "-0";
+            streamAt(next, next, 0);
+            return 95L;
+        });
+        service.doReconcileStock();
+        service.doReconcileStock();
+        verify(seckillStock, never()).adjust(anyLong(), anyLong());
+    }
+
+    private void streamAt(String lastGeneratedId, String lastDeliveredId, long pending) {
+        StreamInfo.XInfoStream info = StreamInfo.XInfoStream.fromList(
+                Arrays.asList("length", 1L, "last-generated-id", lastGeneratedId));
+        StreamInfo.XInfoGroups groups = StreamInfo.XInfoGroups.fromList(Collections.singletonList(
+                Arrays.asList("name", "g1", "consumers", 1L, "pending", pending,
+                        "last-delivered-id", lastDeliveredId)));
+        when(streamOps.info(SECKILL_ORDER_STREAM_KEY)).thenReturn(info);
+        when(streamOps.groups(eq(SECKILL_ORDER_STREAM_KEY))).thenReturn(groups);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamOperations<String, Object, Object> mockStreamOps() {
+        return mock(StreamOperations.class);
+    }
+}
@@ -0,0 +1,176 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.IdProperties;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单微批落库的批次大小对比，用于确定 hmdp.seckill.stream.batch-size 的默认值
+ * <p>
+ * 每次调用在一个事务中执行与 SeckillVoucherServiceImpl.createVoucherOrders 相同的三条语句：
+ * 按user_id查询已存在的订单、一条UPDATE扣减整批库存、一条多行INSERT插入订单；
+ * 结果中的orders为每秒落库的订单数，批次大小再增大而orders不再明显增长时，增大批次只会增加单个订单的等待时间。
+ * 需要一个已导入hmdp表结构的mysql，通过系统属性mysql.url、mysql.username、mysql.password指定，
+ * 默认为 jdbc:mysql://localhost:3306/hmdp 与 root/root；测试使用秒杀券 voucher.id（默认999999999），
+ * 开始前创建，结束后连同订单一起删除。
+ * 不属于单元测试，不会被surefire执行，先执行 mvn test-compile，再在IDE中运行main方法
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+//与订单消费线程一样单线程落库
+@Threads(1)
+@Fork(1)
+public class VoucherOrderBatchBenchmark {
+
+    @Param({"1", "10", "50", "100", "200", "500"})
+    private int batchSize;
+
+    private final long voucherId = Long.getLong("voucher.id", 999999999L);
+
+    private Connection connection;
+    private SnowflakeIdWorker idWorker;
+    //每个订单使用不同的用户，一人一单的查询总是查不到
+    private long nextUserId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection(
+                System.getProperty("mysql.url", "jdbc:mysql://localhost:3306/hmdp?useSSL=false&serverTimezone=UTC"),
+                System.getProperty("mysql.username", "root"), System.getProperty("mysql.password", "root"));
+        connection.setAutoCommit(false);
+        IdProperties idProperties = new IdProperties();
+        idProperties.getSnowflake().setWorkerId(1);
+        idWorker = new SnowflakeIdWorker(null, idProperties);
+        idWorker.init();
+        cleanUp();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO tb_seckill_voucher (voucher_id, stock, begin_time, end_time) VALUES (?, ?, ?, ?)")) {
+            statement.setLong(1, voucherId);
+            statement.setInt(2, Integer.MAX_VALUE);
+            statement.setTimestamp(3, now);
+            statement.setTimestamp(4, now);
+            statement.executeUpdate();
+        }
+        connection.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        cleanUp();
+        connection.close();
+    }
+
+    @Benchmark
+    public void createVoucherOrders(OrderCounter counter) throws SQLException {
+        List<Long> userIds = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            userIds.add(++nextUserId);
+        }
+        //1、一人一单
+        String placeholders = String.join(",", Collections.nCopies(batchSize, "?"));
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT user_id FROM tb_voucher_order WHERE voucher_id = ? AND user_id IN (" + placeholders + ")")) {
+            statement.setLong(1, voucherId);
+            for (int i = 0; i < batchSize; i++) {
+                statement.setLong(i + 2, userIds.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    userIds.remove(Long.valueOf(resultSet.getLong(1)));
+                }
+            }
+        }
+        int count = userIds.size();
+        if (count == 0) {
+            connection.commit();
+            return;
+        }
+        //2、扣减库存
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE tb_seckill_voucher SET stock = stock - " + count + " WHERE voucher_id = ? AND stock >= ?")) {
+            statement.setLong(1, voucherId);
+            statement.setInt(2, count);
+            statement.executeUpdate();
+        }
+        //3、创建订单
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO tb_voucher_order (id, user_id, voucher_id) VALUES "
+                        + String.join(",", Collections.nCopies(count, "(?, ?, ?)")))) {
+            int index = 1;
+            for (Long userId : userIds) {
+                statement.setLong(index++, idWorker.nextId("order"));
+                statement.setLong(index++, userId);
+                statement.setLong(index++, voucherId);
+            }
+            statement.executeUpdate();
+        }
+        connection.commit();
+        counter.orders += count;
+    }
+
+    private void cleanUp() throws SQLException {
+        try (PreparedStatement deleteOrders = connection.prepareStatement(
+                "DELETE FROM tb_voucher_order WHERE voucher_id = ?");
+             PreparedStatement deleteVoucher = connection.prepareStatement(
+                     "DELETE FROM tb_seckill_voucher WHERE voucher_id = ?")) {
+            deleteOrders.setLong(1, voucherId);
+            deleteOrders.executeUpdate();
+            deleteVoucher.setLong(1, voucherId);
+            deleteVoucher.executeUpdate();
+        }
+        connection.commit();
+    }
+
+    /**
+     * 每秒落库的订单数，批次大小不同时比较批次的吞吐量没有意义
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class OrderCounter {
+        public long orders;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            orders = 0;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VoucherOrderBatchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 二进制编解码的往返，以及与json、压缩数据的共存
+ */
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    @Test
+    void roundTrip() {
+        Shop shop = shop();
+        byte[] bytes = codec.encode(shop);
+        assertTrue(codec.canDecode(bytes));
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void logicalRoundTrip() {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.of(2022, 1, 1, 12, 0, 0));
+        RedisData decoded = codec.decodeLogical(codec.encodeLogical(redisData), Shop.class);
+        assertEquals(redisData, decoded);
+
+        //带有重建耗时
+        redisData.setDelta(120L);
+        decoded = codec.decodeLogical(codec.encodeLogical(redisData), Shop.class);
+        assertEquals(redisData, decoded);
+    }
+
+    @Test
+    void kindMismatchIsMiss() {
+        byte[] value = codec.encode(shop());
+        assertNull(codec.decodeLogical(value, Shop.class));
+        RedisData redisData = new RedisData();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.now());
+        assertNull(codec.decode(codec.encodeLogical(redisData), Shop.class));
+    }
+
+    @Test
+    void corruptDataIsMiss() {
+        byte[] value = codec.encode(shop());
+        RedisData redisData = new RedisData();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.now());
+        byte[] logical = codec.encodeLogical(redisData);
+        //任意位置截断
+        for (int length = 3; length < value.length; length++) {
+            assertNull(codec.decode(Arrays.copyOf(value, length), Shop.class));
+        }
+        for (int length = 3; length < logical.length; length++) {
+            assertNull(codec.decodeLogical(Arrays.copyOf(logical, length), Shop.class));
+        }
+        //尾部多出数据
+        assertNull(codec.decode(Arrays.copyOf(value, value.length + 1), Shop.class));
+        //字段内容被改写为超长的varint
+        byte[] corrupt = value.clone();
+        Arrays.fill(corrupt, corrupt.length - 20, corrupt.length, (byte) 0xFF);
+        assertNull(codec.decode(corrupt, Shop.class));
+    }
+
+    @Test
+    void readsJsonAndCompressedDataWithBinaryWriter() {
+        CacheProperties jsonProperties = new CacheProperties();
+        CacheProperties binaryProperties = new CacheProperties();
+        binaryProperties.setCodec("binary");
+        binaryProperties.getCompression().setEnabled(true);
+        binaryProperties.getCompression().setThresholdBytes(16);
+        CacheCodecs jsonCodecs = new CacheCodecs(jsonProperties);
+        CacheCodecs binaryCodecs = new CacheCodecs(binaryProperties);
+
+        Shop shop = shop();
+        //json格式的旧数据
+        assertEquals(shop, binaryCodecs.decode(jsonCodecs.encode(shop), Shop.class));
+        //压缩后的二进制数据，关闭压缩的节点也能读取
+        byte[] compressed = binaryCodecs.encode(shop);
+        assertEquals(shop, binaryCodecs.decode(compressed, Shop.class));
+        assertEquals(shop, jsonCodecs.decode(compressed, Shop.class));
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("102茶餐厅")
+                .setTypeId(1L)
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 布隆过滤器的近期id窗口：上次重建之后新增的数值id在窗口内放行，窗口之外与非数值id仍被拦截
+ */
+class BloomFilterRegistryTest {
+
+    private static final String NAME = "cache:shop:";
+    private static final long WINDOW = 100L;
+
+    private final CacheProperties cacheProperties = new CacheProperties();
+    //数据库中已存在的id
+    private final List<Long> ids = new ArrayList<>();
+
+    private BloomFilterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        cacheProperties.getBloom().setEnabled(true);
+        cacheProperties.getBloom().setExpectedInsertions(1000L);
+        cacheProperties.getBloom().setRecentIdWindow(WINDOW);
+        registry = new BloomFilterRegistry(mock(StringRedisTemplate.class), cacheProperties,
+                mock(RedisMessageListenerContainer.class));
+        registry.register(NAME, consumer -> ids.forEach(consumer));
+        //偶数id 2~200 已存在，最大id为200
+        for (long id = 2; id <= 200; id += 2) {
+            ids.add(id);
+        }
+    }
+
+    @Test
+    void everythingPassesBeforeTheFirstBuild() {
+        assertEquals(0, rejected(1, 1000));
+    }
+
+    @Test
+    void idsInsideTheRecentWindowPass() {
+        registry.rebuild(NAME);
+        assertEquals(0, rejected(2, 200, 2));
+        //绕过服务方法直接写库的新id，在下次重建之前放行
+        assertEquals(0, rejected(201, 200 + WINDOW));
+    }
+
+    @Test
+    void idsOutsideTheRecentWindowAreRejected() {
+        registry.rebuild(NAME);
+        //窗口之外的id
+        assertTrue(rejected(201 + WINDOW, 1200 + WINDOW) >= 950);
+        //最大id之前的空洞（已删除的数据）不属于近期窗口
+        assertTrue(rejected(1, 199, 2) >= 95);
+        //非数值id不使用窗口
+        int nonNumeric = 0;
+        for (int i = 0; i < 100; i++) {
+            if (!registry.mightContain(NAME, "shop-" + i)) {
+                nonNumeric++;
+            }
+        }
+        assertTrue(nonNumeric >= 95);
+    }
+
+    @Test
+    void windowMovesWithTheNextRebuild() {
+        registry.rebuild(NAME);
+        assertTrue(rejected(301 + WINDOW, 400 + WINDOW) >= 95);
+        //重建后最大id变为400+WINDOW，窗口随之后移
+        for (long id = 202; id <= 400 + WINDOW; id += 2) {
+            ids.add(id);
+        }
+        registry.rebuild(NAME);
+        assertEquals(0, rejected(401 + WINDOW, 400 + 2 * WINDOW));
+    }
+
+    @Test
+    void emptyTableStartsTheWindowAtZero() {
+        ids.clear();
+        registry.rebuild(NAME);
+        assertEquals(0, rejected(1, WINDOW));
+        assertTrue(rejected(WINDOW + 1, WINDOW + 100) >= 95);
+    }
+
+    @Test
+    void zeroWindowDisablesIt() {
+        cacheProperties.getBloom().setRecentIdWindow(0L);
+        registry.rebuild(NAME);
+        assertTrue(rejected(201, 300) >= 95);
+    }
+
+    private int rejected(long from, long to) {
+        return rejected(from, to, 1);
+    }
+
+    /**
+     * 统计区间内被判断为一定不存在的id个数
+     */
+    private int rejected(long from, long to, long step) {
+        int count = 0;
+        for (long id = from; id <= to; id += step) {
+            if (!registry.mightContain(NAME, id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 逻辑过期key的提前刷新：热门key在逻辑过期之前被重建，逻辑过期时间向后推迟
+ */
+class CacheClientRefreshAheadTest {
+
+    private static final String PREFIX = "cache:shop:";
+    private static final String KEY = PREFIX + 1L;
+
+    private final CacheProperties cacheProperties = new CacheProperties();
+    private final CacheCodecs cacheCodecs = new CacheCodecs(cacheProperties);
+
+    //redis中当前的缓存值，提前刷新成功后被替换
+    private final AtomicReference<byte[]> stored = new AtomicReference<>();
+
+    private RefreshAheadScheduler refreshAheadScheduler;
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        cacheProperties.getRefreshAhead().setLeadMillis(5000L);
+        cacheProperties.getRefreshAhead().setMinAccesses(1L);
+        cacheProperties.getRefreshAhead().setDbQpsBudget(1000000);
+        refreshAheadScheduler = new RefreshAheadScheduler(cacheProperties);
+
+        //版本号不存在，互斥锁总能获取成功
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> stringOps = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(stringOps);
+        when(stringOps.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        //GET读取当前缓存值，cache_set.lua的写入保存到stored中
+        ValueOperations<String, byte[]> byteOps = mock(ValueOperations.class);
+        when(byteOps.get(KEY)).thenAnswer(invocation -> stored.get());
+        RedisTemplate<String, byte[]> byteRedisTemplate = mock(RedisTemplate.class, invocation -> {
+            if ("opsForValue".equals(invocation.getMethod().getName())) {
+                return byteOps;
+            }
+            if ("execute".equals(invocation.getMethod().getName())) {
+                stored.set((byte[]) invocation.getArguments()[3]);
+                return 1L;
+            }
+            return null;
+        });
+
+        BloomFilterRegistry bloomFilterRegistry = mock(BloomFilterRegistry.class);
+        when(bloomFilterRegistry.mightContain(eq(PREFIX), any())).thenReturn(true);
+
+        //重建任务在调用线程中同步执行
+        CacheRebuildScheduler rebuildScheduler = mock(CacheRebuildScheduler.class);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return true;
+        }).when(rebuildScheduler).submit(anyString(), any(Runnable.class));
+
+        cacheClient = new CacheClient(stringRedisTemplate, byteRedisTemplate, cacheCodecs, cacheProperties,
+                null, mock(LockReleaseNotifier.class), bloomFilterRegistry, mock(HotKeyDetector.class),
+                new CacheMetrics(new SimpleMeterRegistry()), rebuildScheduler, refreshAheadScheduler);
+    }
+
+    @Test
+    void hotKeyIsRebuiltBeforeLogicalExpire() throws InterruptedException {
+        LocalDateTime originalExpire = LocalDateTime.now().plusSeconds(2);
+        stored.set(encode(originalExpire));
+        AtomicInteger dbQueries = new AtomicInteger();
+
+        //1、访问一次，登记为热门key，此时数据尚未过期
+        Shop shop = cacheClient.queryWithLogicalExpire(PREFIX, 1L, Shop.class,
+                id -> {
+                    dbQueries.incrementAndGet();
+                    return new Shop().setId(id).setName("rebuilt");
+                }, 30L, TimeUnit.SECONDS);
+        assertEquals("cached", shop.getName());
+        assertEquals(0, dbQueries.get());
+
+        //2、距离逻辑过期不足提前量，扫描时提前重建
+        Thread.sleep(10);
+        refreshAheadScheduler.scan();
+        assertEquals(1, dbQueries.get());
+        RedisData refreshed = cacheCodecs.decodeLogical(stored.get(), Shop.class);
+        assertNotNull(refreshed);
+        assertEquals("rebuilt", ((Shop) refreshed.getData()).getName());
+        assertTrue(refreshed.getExpireTime().isAfter(originalExpire.plusSeconds(20)));
+
+        //3、过期时间已按实际写入的值推迟，再次扫描不会重复重建
+        cacheClient.queryWithLogicalExpire(PREFIX, 1L, Shop.class,
+                id -> {
+                    dbQueries.incrementAndGet();
+                    return null;
+                }, 30L, TimeUnit.SECONDS);
+        Thread.sleep(10);
+        refreshAheadScheduler.scan();
+        assertEquals(1, dbQueries.get());
+    }
+
+    private byte[] encode(LocalDateTime expireTime) {
+        RedisData redisData = new RedisData();
+        redisData.setData(new Shop().setId(1L).setName("cached"));
+        redisData.setExpireTime(expireTime);
+        return cacheCodecs.encodeLogical(redisData);
+    }
+}
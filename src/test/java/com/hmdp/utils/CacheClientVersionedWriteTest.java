@@ -0,0 +1,157 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 带版本号的缓存写回：查询数据库期间缓存被删除（版本号递增）时，旧数据不会写回redis
+ * 使用内存中的数据模拟redis，cache_set.lua与cache_invalidate.lua以相同的语义执行
+ */
+class CacheClientVersionedWriteTest {
+
+    private static final String PREFIX = "cache:shop:";
+    private static final String KEY = PREFIX + 1L;
+
+    private final CacheProperties cacheProperties = new CacheProperties();
+    private final CacheCodecs cacheCodecs = new CacheCodecs(cacheProperties);
+
+    //缓存值与版本号
+    private final Map<String, byte[]> values = new HashMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ValueOperations<String, String> stringOps = mock(ValueOperations.class, invocation -> {
+            if ("get".equals(invocation.getMethod().getName())) {
+                Long version = versions.get((String) invocation.getArguments()[0]);
+                return version == null ? null : version.toString();
+            }
+            return null;
+        });
+        //字符串模板只执行失效脚本：递增版本号并删除缓存
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "opsForValue":
+                    return stringOps;
+                case "execute":
+                    List<String> keys = (List<String>) invocation.getArguments()[1];
+                    values.remove(keys.get(0));
+                    return versions.merge(keys.get(1), 1L, Long::sum);
+                default:
+                    return null;
+            }
+        });
+
+        ValueOperations<String, byte[]> byteOps = mock(ValueOperations.class, invocation -> {
+            if ("get".equals(invocation.getMethod().getName())) {
+                return values.get((String) invocation.getArguments()[0]);
+            }
+            return null;
+        });
+        //字节模板只执行写入脚本：版本号与查询前读到的一致才写入
+        RedisTemplate<String, byte[]> byteRedisTemplate = mock(RedisTemplate.class, invocation -> {
+            switch (invocation.getMethod().getName()) {
+                case "opsForValue":
+                    return byteOps;
+                case "execute":
+                    Object[] args = invocation.getArguments();
+                    List<String> keys = (List<String>) args[1];
+                    String expected = new String((byte[]) args[2], StandardCharsets.UTF_8);
+                    String actual = String.valueOf(versions.getOrDefault(keys.get(1), 0L));
+                    if (!expected.equals(actual)) {
+                        return 0L;
+                    }
+                    values.put(keys.get(0), (byte[]) args[3]);
+                    return 1L;
+                default:
+                    return null;
+            }
+        });
+
+        BloomFilterRegistry bloomFilterRegistry = mock(BloomFilterRegistry.class);
+        when(bloomFilterRegistry.mightContain(eq(PREFIX), any())).thenReturn(true);
+
+        cacheClient = new CacheClient(stringRedisTemplate, byteRedisTemplate, cacheCodecs, cacheProperties,
+                null, mock(LockReleaseNotifier.class), bloomFilterRegistry, mock(HotKeyDetector.class),
+                new CacheMetrics(new SimpleMeterRegistry()), mock(CacheRebuildScheduler.class),
+                new RefreshAheadScheduler(cacheProperties));
+    }
+
+    @Test
+    void valueIsWrittenWhenVersionIsUnchanged() {
+        Shop shop = query(id -> new Shop().setId(id).setName("db"));
+        assertEquals("db", shop.getName());
+        Shop cached = cacheCodecs.decode(values.get(KEY), Shop.class);
+        assertNotNull(cached);
+        assertEquals("db", cached.getName());
+    }
+
+    @Test
+    void staleValueIsRejectedWhenKeyIsDeletedDuringTheQuery() {
+        //1、查询数据库期间，另一个请求更新了数据并删除缓存
+        Shop shop = query(id -> {
+            cacheClient.delete(KEY);
+            return new Shop().setId(id).setName("old");
+        });
+        //本次请求仍返回查到的数据，但不会写回redis
+        assertEquals("old", shop.getName());
+        assertFalse(values.containsKey(KEY));
+        assertEquals(1L, versions.get(CACHE_VERSION_KEY + KEY));
+
+        //2、下一次未命中以新的版本号写回
+        AtomicInteger dbQueries = new AtomicInteger();
+        query(id -> {
+            dbQueries.incrementAndGet();
+            return new Shop().setId(id).setName("new");
+        });
+        assertEquals(1, dbQueries.get());
+        assertEquals("new", cacheCodecs.decode(values.get(KEY), Shop.class).getName());
+    }
+
+    @Test
+    void staleNullValueIsRejectedWhenKeyIsDeletedDuringTheQuery() {
+        //查询数据库时记录不存在，期间记录被插入并删除缓存，空值不能覆盖
+        assertNull(query(id -> {
+            cacheClient.delete(KEY);
+            return null;
+        }));
+        assertFalse(values.containsKey(KEY));
+
+        //记录不存在且没有并发更新时写入空值
+        assertNull(query(id -> null));
+        assertTrue(values.containsKey(KEY));
+        assertEquals(0, values.get(KEY).length);
+    }
+
+    private Shop query(Function<Long, Shop> dbFallback) {
+        return cacheClient.queryWithPassThrough(PREFIX, 1L, Shop.class, dbFallback, 30L, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存值压缩的开销与收益，用于确定 hmdp.cache.compression.threshold-bytes 的默认值
+ * <p>
+ * codec：只测量压缩+解压缩的CPU耗时，不需要redis；
+ * redisRoundTrip：一次SET加一次GET（压缩时包含压缩与解压缩），需要一个可以访问的redis，
+ * 通过系统属性redis.host、redis.port、redis.password指定，默认为localhost:6379，数据写入 cache:benchmark:* 。
+ * 两种方式下compressed=true与false的耗时之差即为压缩的净开销，净开销降为0附近的数据大小就是阈值的平衡点；
+ * 平衡点与网络带宽有关，redis部署在其他机器时应在实际网络下运行redisRoundTrip。
+ * 不属于单元测试，不会被surefire执行，先执行 mvn test-compile，再在IDE中运行main方法
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCompressorBenchmark {
+
+    //编码后的数据大小（字节）
+    @Param({"256", "512", "1024", "2048", "4096", "16384"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean compressed;
+
+    private CacheCompressor compressor;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        //阈值为1时任何数据都会尝试压缩，compressed=false时不压缩
+        compressor = new CacheCompressor(compressed ? 1 : 0, 16 * 1024 * 1024);
+        payload = shopPayload(size);
+    }
+
+    @Benchmark
+    public byte[] codec() {
+        return decode(compressor.compress(payload));
+    }
+
+    @Benchmark
+    public byte[] redisRoundTrip(RedisState redis) {
+        String key = "cache:benchmark:" + size;
+        redis.template.opsForValue().set(key, compressor.compress(payload));
+        return decode(redis.template.opsForValue().get(key));
+    }
+
+    private byte[] decode(byte[] bytes) {
+        return compressor.isCompressed(bytes) ? compressor.decompress(bytes) : bytes;
+    }
+
+    /**
+     * 由商铺json拼接出接近指定大小的数据，字段值各不相同，压缩率接近真实的缓存值
+     */
+    private static byte[] shopPayload(int size) {
+        List<Shop> shops = new ArrayList<>();
+        byte[] json = new byte[0];
+        for (long i = 1; json.length < size; i++) {
+            shops.add(new Shop().setId(i).setName("店铺" + i).setTypeId(i % 10 + 1)
+                    .setImages("https://qcloud.dpfile.com/pc/" + Long.toHexString(i * 0x9E3779B97F4A7C15L) + ".jpg")
+                    .setArea("区域" + i % 7).setAddress("测试路" + i * 17 + "号")
+                    .setX(120.0 + i * 0.00137).setY(30.0 + i * 0.00091)
+                    .setAvgPrice(40 + i * 7 % 200).setSold((int) (i * 131 % 10000))
+                    .setComments((int) (i * 37 % 5000)).setScore((int) (30 + i % 20)).setOpenHours("10:00-22:00"));
+            json = JSONUtil.toJsonStr(shops).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(json, 0, result, 0, size);
+        return result;
+    }
+
+    @State(Scope.Benchmark)
+    public static class RedisState {
+        private LettuceConnectionFactory connectionFactory;
+        private RedisTemplate<String, byte[]> template;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                    System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+            String password = System.getProperty("redis.password");
+            if (password != null) {
+                configuration.setPassword(password);
+            }
+            connectionFactory = new LettuceConnectionFactory(configuration);
+            connectionFactory.afterPropertiesSet();
+            template = new RedisTemplate<>();
+            template.setConnectionFactory(connectionFactory);
+            template.setKeySerializer(RedisSerializer.string());
+            template.setValueSerializer(RedisSerializer.byteArray());
+            template.afterPropertiesSet();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            connectionFactory.destroy();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CacheCompressorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheCompressorTest {
+
+    private final CacheCompressor compressor = new CacheCompressor(64, 1024 * 1024);
+
+    @Test
+    void roundTrip() {
+        byte[] bytes = repeat("{\"name\":\"102茶餐厅\",\"area\":\"大关\"}", 100);
+        byte[] compressed = compressor.compress(bytes);
+        assertTrue(compressor.isCompressed(compressed));
+        assertTrue(compressed.length < bytes.length);
+        assertArrayEquals(bytes, compressor.decompress(compressed));
+    }
+
+    @Test
+    void keepsSmallAndIncompressibleValues() {
+        byte[] small = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+        assertSame(small, compressor.compress(small));
+        byte[] random = RandomUtil.randomBytes(4096);
+        assertFalse(compressor.isCompressed(compressor.compress(random)));
+    }
+
+    @Test
+    void rejectsLengthAboveLimitBeforeAllocating() {
+        //头部声明 2^31-1 字节
+        byte[] forged = {CacheCompressor.MAGIC, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x00};
+        assertNull(compressor.decompress(forged));
+        //varint超过5个字节
+        byte[] overlong = {CacheCompressor.MAGIC, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        assertNull(compressor.decompress(overlong));
+    }
+
+    @Test
+    void rejectsInflatedSizeMismatch() {
+        byte[] bytes = repeat("hmdp", 100);
+        //头部声明的长度比实际多
+        assertNull(compressor.decompress(withHeader(bytes.length + 1, deflate(bytes))));
+        //头部声明的长度比实际少
+        assertNull(compressor.decompress(withHeader(bytes.length - 1, deflate(bytes))));
+        //压缩数据被截断
+        byte[] compressed = compressor.compress(bytes);
+        assertNull(compressor.decompress(Arrays.copyOf(compressed, compressed.length - 2)));
+    }
+
+    private static byte[] repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buffer = new byte[bytes.length + 64];
+        int n = deflater.deflate(buffer);
+        deflater.end();
+        return Arrays.copyOf(buffer, n);
+    }
+
+    private static byte[] withHeader(int length, byte[] deflated) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(CacheCompressor.MAGIC);
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        out.write(deflated, 0, deflated.length);
+        return out.toByteArray();
+    }
+}
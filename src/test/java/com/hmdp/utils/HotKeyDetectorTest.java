@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热点key的识别与按窗口降级
+ */
+class HotKeyDetectorTest {
+
+    private static final String HOT = "cache:shop:1";
+    private static final String COLD = "cache:shop:2";
+
+    @Test
+    void detectsAndDemotesHotKeys() {
+        HotKeyDetector detector = new HotKeyDetector(properties(true));
+        for (int i = 0; i < 100; i++) {
+            detector.record(HOT);
+        }
+        detector.record(COLD);
+
+        //1、超过阈值的key识别为热点
+        assertTrue(detector.isHot(HOT));
+        assertFalse(detector.isHot(COLD));
+        assertEquals(100L, detector.frequency(HOT));
+        assertEquals(1, detector.hotKeys().size());
+        assertEquals(HOT, detector.hotKeys().get(0).getKey());
+
+        //2、窗口滚动时保留仍然超过阈值的热点，并开始新的计数
+        detector.rotate();
+        assertTrue(detector.isHot(HOT));
+        assertEquals(0L, detector.frequency(HOT));
+
+        //3、上一个窗口没有访问，降级
+        detector.rotate();
+        assertFalse(detector.isHot(HOT));
+        assertTrue(detector.hotKeys().isEmpty());
+    }
+
+    @Test
+    void limitsHotKeyCount() {
+        CacheProperties cacheProperties = properties(true);
+        cacheProperties.getHotKey().setMaxHotKeys(1);
+        HotKeyDetector detector = new HotKeyDetector(cacheProperties);
+        for (int i = 0; i < 100; i++) {
+            detector.record(HOT);
+            detector.record(COLD);
+        }
+        assertEquals(1, detector.hotKeys().size());
+    }
+
+    @Test
+    void disabledDetectorRecordsNothing() {
+        HotKeyDetector detector = new HotKeyDetector(properties(false));
+        for (int i = 0; i < 100; i++) {
+            detector.record(HOT);
+        }
+        assertFalse(detector.isHot(HOT));
+        assertEquals(0L, detector.frequency(HOT));
+    }
+
+    private static CacheProperties properties(boolean enabled) {
+        CacheProperties cacheProperties = new CacheProperties();
+        CacheProperties.HotKey hotKey = cacheProperties.getHotKey();
+        hotKey.setEnabled(enabled);
+        //1秒的窗口内访问100次即为热点
+        hotKey.setQpsThreshold(100L);
+        hotKey.setWindowMillis(1000L);
+        hotKey.setSampleRate(1);
+        return cacheProperties;
+    }
+}
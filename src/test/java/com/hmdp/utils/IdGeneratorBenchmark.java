@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.IdProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局唯一id生成器的吞吐量对比：snowflake、redis号段模式与每个id一次INCR
+ * <p>
+ * redis相关的模式需要一个可以访问的redis，通过系统属性redis.host、redis.port、redis.password指定，
+ * 默认为localhost:6379；序列号写入 icr:benchmark:* ，测试结束后可以手动删除。
+ * 不属于单元测试，不会被surefire执行，先执行 mvn test-compile，再在IDE中运行main方法
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    @Param({"snowflake", "segment", "incr"})
+    private String mode;
+
+    private LettuceConnectionFactory connectionFactory;
+    private IdGenerator idGenerator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        IdProperties idProperties = new IdProperties();
+        if ("snowflake".equals(mode)) {
+            //固定的worker id，不访问redis
+            idProperties.getSnowflake().setWorkerId(1);
+            SnowflakeIdWorker snowflakeIdWorker = new SnowflakeIdWorker(null, idProperties);
+            snowflakeIdWorker.init();
+            idGenerator = snowflakeIdWorker;
+            return;
+        }
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        String password = System.getProperty("redis.password");
+        if (password != null) {
+            configuration.setPassword(password);
+        }
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        idProperties.getSegment().setEnabled("segment".equals(mode));
+        idGenerator = new RedisIdWorker(new StringRedisTemplate(connectionFactory), idProperties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (idGenerator instanceof RedisIdWorker) {
+            ((RedisIdWorker) idGenerator).shutdown();
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idGenerator.nextId("benchmark");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(IdGeneratorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
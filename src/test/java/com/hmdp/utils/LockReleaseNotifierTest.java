@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import static com.hmdp.utils.RedisConstants.LOCK_RELEASE_CHANNEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 锁释放通知的登记与清理
+ */
+class LockReleaseNotifierTest {
+
+    private static final String LOCK_KEY = "lock:cache:shop:1";
+
+    private LockReleaseNotifier notifier;
+    private MessageListener listener;
+
+    @BeforeEach
+    void setUp() {
+        RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+        notifier = new LockReleaseNotifier(mock(StringRedisTemplate.class), new CacheProperties(), container);
+        ArgumentCaptor<MessageListener> captor = ArgumentCaptor.forClass(MessageListener.class);
+        verify(container).addMessageListener(captor.capture(), any(ChannelTopic.class));
+        listener = captor.getValue();
+    }
+
+    @Test
+    void timedOutWaitersAreRemoved() throws InterruptedException {
+        CountDownLatch first = notifier.watch(LOCK_KEY);
+        CountDownLatch second = notifier.watch(LOCK_KEY);
+        assertSame(first, second);
+
+        //一个等待者超时离开，另一个仍在等待
+        assertFalse(notifier.await(first, System.currentTimeMillis() + 10));
+        notifier.unwatch(LOCK_KEY, first);
+        assertEquals(1, notifier.watchedCount());
+
+        //最后一个等待者离开后移除
+        notifier.unwatch(LOCK_KEY, second);
+        assertEquals(0, notifier.watchedCount());
+    }
+
+    @Test
+    void releaseWakesAllWaiters() throws InterruptedException {
+        CountDownLatch first = notifier.watch(LOCK_KEY);
+        CountDownLatch second = notifier.watch(LOCK_KEY);
+        listener.onMessage(new DefaultMessage(LOCK_RELEASE_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                LOCK_KEY.getBytes(StandardCharsets.UTF_8)), null);
+        assertTrue(notifier.await(first, System.currentTimeMillis() + 1000));
+        assertTrue(notifier.await(second, System.currentTimeMillis() + 1000));
+        assertEquals(0, notifier.watchedCount());
+
+        //唤醒之后的取消登记不影响新一轮的等待
+        CountDownLatch next = notifier.watch(LOCK_KEY);
+        notifier.unwatch(LOCK_KEY, first);
+        assertEquals(1, notifier.watchedCount());
+        notifier.unwatch(LOCK_KEY, next);
+        assertEquals(0, notifier.watchedCount());
+    }
+}
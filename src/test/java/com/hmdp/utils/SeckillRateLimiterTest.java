@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 秒杀限流：本地令牌、全局配额与令牌桶数量上限
+ */
+class SeckillRateLimiterTest {
+
+    private static final Long VOUCHER_ID = 7L;
+
+    private final SeckillProperties seckillProperties = new SeckillProperties();
+    private final SeckillMetrics seckillMetrics = mock(SeckillMetrics.class);
+
+    //租借脚本的调用次数与每次租借到的令牌数，小于0时抛出异常
+    private final AtomicInteger leases = new AtomicInteger();
+    private final AtomicLong granted = new AtomicLong(5);
+
+    private SeckillRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        seckillProperties.getRateLimit().setLeaseSize(5);
+        seckillProperties.getRateLimit().setMaxBuckets(100);
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class, invocation -> {
+            if (!"execute".equals(invocation.getMethod().getName())) {
+                return null;
+            }
+            leases.incrementAndGet();
+            if (granted.get() < 0) {
+                throw new RedisSystemException("timeout", null);
+            }
+            return granted.get();
+        });
+        rateLimiter = new SeckillRateLimiter(stringRedisTemplate, seckillProperties, seckillMetrics);
+    }
+
+    @Test
+    void leasedTokensAreServedLocally() {
+        awaitStartOfSecond();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.tryAcquire(VOUCHER_ID));
+        }
+        assertEquals(1, leases.get());
+    }
+
+    @Test
+    void exhaustedGlobalBudgetIsRejectedLocally() {
+        granted.set(0);
+        awaitStartOfSecond();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(rateLimiter.tryAcquire(VOUCHER_ID));
+        }
+        //本秒的全局配额用完后不再访问redis
+        assertEquals(1, leases.get());
+        verify(seckillMetrics).rateLimited(SeckillRateLimiter.REASON_GLOBAL);
+    }
+
+    @Test
+    void redisErrorIsRejected() {
+        granted.set(-1);
+        assertFalse(rateLimiter.tryAcquire(VOUCHER_ID));
+        verify(seckillMetrics).rateLimited(SeckillRateLimiter.REASON_ERROR);
+    }
+
+    @Test
+    void bucketCountIsBounded() {
+        for (long id = 0; id < 1000; id++) {
+            rateLimiter.tryAcquire(id);
+        }
+        assertTrue(rateLimiter.bucketCount() <= 100);
+    }
+
+    @Test
+    void perVoucherLimitAndDisabledLimiter() {
+        seckillProperties.getRateLimit().getVouchers().put(VOUCHER_ID, 0);
+        assertFalse(rateLimiter.tryAcquire(VOUCHER_ID));
+        assertEquals(0, leases.get());
+
+        seckillProperties.getRateLimit().setEnabled(false);
+        assertTrue(rateLimiter.tryAcquire(VOUCHER_ID));
+    }
+
+    /**
+     * 等到一秒的前半段，避免测试跨越两秒
+     */
+    private static void awaitStartOfSecond() {
+        while (System.currentTimeMillis() % 1000 > 500) {
+            Thread.yield();
+        }
+    }
+}
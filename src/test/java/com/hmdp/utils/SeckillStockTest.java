@@ -0,0 +1,275 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 分片库存：探测其他分片、用户记录与库存归还
+ * 使用内存中的数据模拟redis，脚本按sha识别后以相同的语义执行
+ */
+class SeckillStockTest {
+
+    private static final Long VOUCHER_ID = 7L;
+    private static final int SHARDS = 4;
+    //所属分片为0的用户
+    private static final Long USER_ID = 100L;
+
+    private static final String SHARD_SHA = sha("seckill_shard.lua");
+    private static final String TAKE_SHA = sha("seckill_shard_take.lua");
+    private static final String PENDING_RELEASE_SHA = sha("seckill_pending_release.lua");
+    private static final String ROLLBACK_SHA = sha("seckill_rollback.lua");
+
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+
+    //探测其他分片时抛出异常，模拟redis超时
+    private boolean failTake;
+    //发送订单消息时抛出异常
+    private boolean failStream;
+
+    private SeckillStock seckillStock;
+
+    @BeforeEach
+    void setUp() {
+        SeckillProperties seckillProperties = new SeckillProperties();
+        seckillProperties.getStock().setShards(SHARDS);
+        seckillStock = new SeckillStock(fakeRedis(), seckillProperties, mock(SeckillLocalCache.class));
+        //所属分片没有库存，分片2还剩1个
+        for (int i = 0; i < SHARDS; i++) {
+            values.put(stockKey(i), i == 2 ? "1" : "0");
+        }
+    }
+
+    @Test
+    void takesFromSiblingAndRecordsUserOnHomeShard() {
+        assertEquals(SeckillStock.RESULT_OK, seckillStock.acquire(VOUCHER_ID, USER_ID, 1L));
+        assertEquals("0", values.get(stockKey(2)));
+        assertTrue(users(0).contains(USER_ID.toString()));
+        assertTrue(pending(2).isEmpty());
+        //一人一单
+        values.put(stockKey(2), "1");
+        assertEquals(SeckillStock.RESULT_DUPLICATE, seckillStock.acquire(VOUCHER_ID, USER_ID, 2L));
+        assertEquals("1", values.get(stockKey(2)));
+    }
+
+    @Test
+    void soldOutDoesNotRecordUser() {
+        values.put(stockKey(2), "0");
+        assertEquals(SeckillStock.RESULT_INSUFFICIENT, seckillStock.acquire(VOUCHER_ID, USER_ID, 1L));
+        assertTrue(users(0).isEmpty());
+        assertTrue(values.containsKey(RedisConstants.SECKILL_SOLD_OUT_KEY + VOUCHER_ID));
+    }
+
+    @Test
+    void failedProbeDoesNotRecordUser() {
+        failTake = true;
+        assertThrows(RedisSystemException.class, () -> seckillStock.acquire(VOUCHER_ID, USER_ID, 1L));
+        assertTrue(users(0).isEmpty());
+        //redis恢复后可以正常下单
+        failTake = false;
+        assertEquals(SeckillStock.RESULT_OK, seckillStock.acquire(VOUCHER_ID, USER_ID, 2L));
+    }
+
+    @Test
+    void failedSendReturnsStockToTheShardItWasTakenFrom() {
+        failStream = true;
+        assertThrows(RedisSystemException.class, () -> seckillStock.acquire(VOUCHER_ID, USER_ID, 1L));
+        assertEquals("1", values.get(stockKey(2)));
+        assertEquals("0", values.get(stockKey(0)));
+        assertTrue(users(0).isEmpty());
+        assertTrue(pending(2).isEmpty());
+    }
+
+    @Test
+    void stalePendingFromSiblingIsReturnedOnce() {
+        //节点在从分片2扣减库存之后、记录用户之前宕机
+        pending(2).put("1", USER_ID + ":0");
+        values.put(stockKey(2), "0");
+
+        assertEquals(1, seckillStock.releaseStalePending(VOUCHER_ID, 1000L, orderId -> false));
+        assertEquals("1", values.get(stockKey(2)));
+        assertTrue(pending(2).isEmpty());
+        //再次对账不会重复归还
+        assertEquals(0, seckillStock.releaseStalePending(VOUCHER_ID, 1000L, orderId -> false));
+        assertEquals("1", values.get(stockKey(2)));
+    }
+
+    @Test
+    void stalePendingOfPersistedOrderOnlyRemovesRecord() {
+        pending(2).put("1", USER_ID + ":0");
+        values.put(stockKey(2), "0");
+        users(0).add(USER_ID.toString());
+
+        assertEquals(0, seckillStock.releaseStalePending(VOUCHER_ID, 1000L, orderId -> true));
+        assertEquals("0", values.get(stockKey(2)));
+        assertTrue(users(0).contains(USER_ID.toString()));
+        assertTrue(pending(2).isEmpty());
+    }
+
+    @Test
+    void recentPendingIsKept() {
+        pending(2).put("1", USER_ID + ":" + System.currentTimeMillis());
+        assertEquals(0, seckillStock.releaseStalePending(VOUCHER_ID, 60000L, orderId -> false));
+        assertFalse(pending(2).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private StringRedisTemplate fakeRedis() {
+        SetOperations<String, String> setOps = mock(SetOperations.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            Set<String> set = sets.computeIfAbsent((String) args[0], k -> new HashSet<>());
+            switch (invocation.getMethod().getName()) {
+                case "add":
+                    return set.add((String) args[1]) ? 1L : 0L;
+                case "remove":
+                    return set.remove((String) args[1]) ? 1L : 0L;
+                default:
+                    throw new UnsupportedOperationException(invocation.getMethod().getName());
+            }
+        });
+        ValueOperations<String, String> valueOps = mock(ValueOperations.class, invocation -> {
+            if ("set".equals(invocation.getMethod().getName())) {
+                values.put((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]);
+                return null;
+            }
+            throw new UnsupportedOperationException(invocation.getMethod().getName());
+        });
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class, invocation -> {
+            Object[] args = invocation.getArguments();
+            Map<String, String> hash = hashes.computeIfAbsent((String) args[0], k -> new HashMap<>());
+            switch (invocation.getMethod().getName()) {
+                case "entries":
+                    return new HashMap<Object, Object>(hash);
+                case "delete":
+                    return hash.remove(args[1].toString()) == null ? 0L : 1L;
+                default:
+                    throw new UnsupportedOperationException(invocation.getMethod().getName());
+            }
+        });
+        StreamOperations<String, Object, Object> streamOps = mock(StreamOperations.class, invocation -> {
+            if (failStream) {
+                throw new RedisSystemException("stream unavailable", null);
+            }
+            return null;
+        });
+        return mock(StringRedisTemplate.class, invocation -> {
+            //可变参数已展开为单独的参数
+            Object[] args = invocation.getArguments();
+            switch (invocation.getMethod().getName()) {
+                case "opsForSet":
+                    return setOps;
+                case "opsForValue":
+                    return valueOps;
+                case "opsForHash":
+                    return hashOps;
+                case "opsForStream":
+                    return streamOps;
+                case "hasKey":
+                    return values.containsKey((String) args[0]);
+                case "delete":
+                    return values.remove((String) args[0]) != null;
+                case "execute":
+                    return eval((RedisScript<?>) args[0], (List<String>) args[1], Arrays.copyOfRange(args, 2, args.length));
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private Long eval(RedisScript<?> script, List<String> keys, Object[] args) {
+        String sha = script.getSha1();
+        if (SHARD_SHA.equals(sha)) {
+            String stock = values.get(keys.get(0));
+            if (stock == null) {
+                return 3L;
+            }
+            Set<String> users = sets.computeIfAbsent(keys.get(1), k -> new HashSet<>());
+            if (users.contains((String) args[0])) {
+                return 2L;
+            }
+            if (Long.parseLong(stock) <= 0) {
+                return 1L;
+            }
+            incr(keys.get(0), -1);
+            users.add((String) args[0]);
+            hashes.computeIfAbsent(keys.get(2), k -> new HashMap<>()).put((String) args[1], args[0] + ":" + args[2]);
+            return 0L;
+        }
+        if (TAKE_SHA.equals(sha)) {
+            if (failTake) {
+                throw new RedisSystemException("timeout", null);
+            }
+            String stock = values.get(keys.get(0));
+            if (stock == null || Long.parseLong(stock) <= 0) {
+                return 0L;
+            }
+            incr(keys.get(0), -1);
+            hashes.computeIfAbsent(keys.get(1), k -> new HashMap<>()).put((String) args[1], args[0] + ":" + args[2]);
+            return 1L;
+        }
+        if (PENDING_RELEASE_SHA.equals(sha)) {
+            if (hashes.computeIfAbsent(keys.get(1), k -> new HashMap<>()).remove((String) args[0]) == null) {
+                return 0L;
+            }
+            incr(keys.get(0), 1);
+            return 1L;
+        }
+        if (ROLLBACK_SHA.equals(sha)) {
+            if (!sets.computeIfAbsent(keys.get(1), k -> new HashSet<>()).remove((String) args[0])) {
+                return 0L;
+            }
+            incr(keys.get(0), 1);
+            return 1L;
+        }
+        throw new UnsupportedOperationException(sha);
+    }
+
+    private void incr(String key, long delta) {
+        values.put(key, String.valueOf(Long.parseLong(values.getOrDefault(key, "0")) + delta));
+    }
+
+    private Set<String> users(int shard) {
+        return sets.computeIfAbsent(RedisConstants.SECKILL_ORDER_KEY + "{" + VOUCHER_ID + ":" + shard + "}",
+                k -> new HashSet<>());
+    }
+
+    private Map<String, String> pending(int shard) {
+        return hashes.computeIfAbsent(RedisConstants.SECKILL_PENDING_KEY + "{" + VOUCHER_ID + ":" + shard + "}",
+                k -> new HashMap<>());
+    }
+
+    private static String stockKey(int shard) {
+        return RedisConstants.SECKILL_STOCK_KEY + "{" + VOUCHER_ID + ":" + shard + "}";
+    }
+
+    private static String sha(String location) {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(Long.class);
+        return script.getSha1();
+    }
+}
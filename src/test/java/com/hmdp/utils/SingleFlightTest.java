@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 同一key的并发调用合并为一次加载
+ */
+class SingleFlightTest {
+
+    private static final int THREADS = 8;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch arrived = new CountDownLatch(THREADS);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> {
+                arrived.countDown();
+                return singleFlight.execute("cache:shop:1", () -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return "shop";
+                });
+            }));
+        }
+        //所有调用都已进入等待后再放行leader
+        awaitArrival(arrived);
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("shop", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, singleFlight.inFlightCount());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void exceptionIsSharedAndNotCached() throws Exception {
+        IllegalStateException failure = new IllegalStateException("db down");
+        CountDownLatch arrived = new CountDownLatch(THREADS);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        List<Future<Throwable>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> {
+                arrived.countDown();
+                return assertThrows(IllegalStateException.class,
+                        () -> singleFlight.execute("cache:shop:1", () -> {
+                            loads.incrementAndGet();
+                            await(release);
+                            throw failure;
+                        }));
+            }));
+        }
+        awaitArrival(arrived);
+        release.countDown();
+        for (Future<Throwable> result : results) {
+            //等待者拿到的是leader抛出的原始异常
+            assertSame(failure, result.get(5, TimeUnit.SECONDS));
+        }
+        //失败不被缓存，下一次调用重新加载
+        assertEquals("shop", singleFlight.execute("cache:shop:1", () -> "shop"));
+        executor.shutdownNow();
+    }
+
+    /**
+     * 等待所有线程开始调用，再留出进入execute的时间
+     */
+    private static void awaitArrival(CountDownLatch arrived) throws InterruptedException {
+        assertTrue(arrived.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.IdProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * snowflake id的时钟回拨、序列号用尽与租约有效期
+ */
+class SnowflakeIdWorkerTest {
+
+    private static final long BEGIN_TIMESTAMP = 1640995200000L;
+    private static final long NOW = BEGIN_TIMESTAMP + 1000000L;
+
+    @Test
+    void sequenceExhaustionMovesToNextMillis() {
+        //时钟每读取10000次前进1毫秒，4096个id都落在同一毫秒
+        FakeClockIdWorker worker = newWorker(10000);
+        long previous = -1;
+        for (int i = 0; i <= 4095; i++) {
+            long id = worker.nextId("order");
+            assertEquals(NOW, timestampOf(id));
+            assertEquals(i, sequenceOf(id));
+            assertTrue(id > previous);
+            previous = id;
+        }
+        //序列号用完，等待下一毫秒并从0开始
+        long id = worker.nextId("order");
+        assertEquals(NOW + 1, timestampOf(id));
+        assertEquals(0, sequenceOf(id));
+        assertTrue(id > previous);
+    }
+
+    @Test
+    void smallClockRollbackWaitsForTheClock() {
+        //时钟每读取1次前进1毫秒
+        FakeClockIdWorker worker = newWorker(1);
+        long first = worker.nextId("order");
+        //回拨3毫秒，不超过maxBackwardMillis
+        worker.now = NOW - 3;
+        long second = worker.nextId("order");
+        assertTrue(timestampOf(second) >= timestampOf(first));
+        assertTrue(second > first);
+    }
+
+    @Test
+    void largeClockRollbackIsRefused() {
+        FakeClockIdWorker worker = newWorker(Integer.MAX_VALUE);
+        long previous = worker.nextId("order");
+        //大幅回拨时拒绝生成，不会生成领先墙上时钟的id
+        worker.now = NOW - 60000;
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+        //时钟追上之后恢复
+        worker.now = NOW;
+        long id = worker.nextId("order");
+        assertTrue(id > previous);
+        assertEquals(NOW, timestampOf(id));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void expiredLeaseIsRefusedEvenIfTheWallClockMovesBack() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(ops);
+        when(ops.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+        //租约60秒，安全余量10秒，租借后50秒内可以生成
+        FakeClockIdWorker worker = new FakeClockIdWorker(stringRedisTemplate, new IdProperties(), 1);
+        worker.init();
+        worker.nextId("order");
+
+        worker.nanos += TimeUnit.SECONDS.toNanos(49);
+        worker.nextId("order");
+        //墙上时钟回拨不影响租约的计时
+        worker.now -= 3;
+        worker.nanos += TimeUnit.SECONDS.toNanos(1);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    private static FakeClockIdWorker newWorker(int readsPerMillis) {
+        IdProperties idProperties = new IdProperties();
+        idProperties.getSnowflake().setWorkerId(1);
+        FakeClockIdWorker worker = new FakeClockIdWorker(null, idProperties, readsPerMillis);
+        worker.init();
+        return worker;
+    }
+
+    private static long timestampOf(long id) {
+        return (id >> 22) + BEGIN_TIMESTAMP;
+    }
+
+    private static long sequenceOf(long id) {
+        return id & 0xFFF;
+    }
+
+    /**
+     * 可控的时钟，每读取readsPerMillis次前进1毫秒；单调时钟只由测试推进
+     */
+    private static class FakeClockIdWorker extends SnowflakeIdWorker {
+        private final int readsPerMillis;
+        private long now = NOW;
+        private int reads;
+        private long nanos;
+
+        FakeClockIdWorker(StringRedisTemplate stringRedisTemplate, IdProperties idProperties, int readsPerMillis) {
+            super(stringRedisTemplate, idProperties);
+            this.readsPerMillis = readsPerMillis;
+        }
+
+        @Override
+        long currentTimeMillis() {
+            if (++reads >= readsPerMillis) {
+                reads = 0;
+                return now++;
+            }
+            return now;
+        }
+
+        @Override
+        long nanoTime() {
+            return nanos;
+        }
+    }
+}